@@ -22,6 +22,14 @@ import java.security.*;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 //import java.security.InvalidKeyException;
 //import java.security.NoSuchAlgorithmException;
@@ -142,6 +150,8 @@ public class KBaseAuthValidateToken {
 		
 		/** split the signature_data and signature*/
 		int sig_position = token.indexOf("|sig=");
+		if (sig_position < 0)
+			return result;
 		String sig_data = token.substring(0,sig_position);
 		String sig = "";
 		if (token.length() - sig_position >= 5)
@@ -163,47 +173,27 @@ public class KBaseAuthValidateToken {
 			}
 		}
 		
-		/** now HTTPS the SigningSubgject of input Token */
-		URL validation_url = new URL((String) parsed_token.get("SigningSubject"));
-		// Create a trust manager that does not validate certificate chains
-		TrustManager[] trustAllCerts = new TrustManager[] { 
-		  new X509TrustManager() {
-		    public X509Certificate[] getAcceptedIssuers() { 
-		      return new X509Certificate[0]; 
-		    }
-		    public void checkClientTrusted(X509Certificate[] certs, String authType) {}
-		    public void checkServerTrusted(X509Certificate[] certs, String authType) {}
-		}};
-		
-		// Ignore differences between given hostname and certificate hostname
-		HostnameVerifier hv = new HostnameVerifier() {
-		  public boolean verify(String hostname, SSLSession session) { return true; }
-		};
-		
-		// Install the all-trusting trust manager
-		SSLContext sc = SSLContext.getInstance("SSL");
-		sc.init(null, trustAllCerts, new SecureRandom());
-		HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-		HttpsURLConnection.setDefaultHostnameVerifier(hv);
-		
-		/** make the request to Authentication server */
-		HttpsURLConnection conn = (HttpsURLConnection) validation_url.openConnection(); 
-		InputStream in = conn.getInputStream();
-		
-		/** Encoding the HTTP response into JSON format */
-		BufferedReader br = new BufferedReader(new InputStreamReader(in));
-		ObjectMapper m = new ObjectMapper();
-		JsonNode jn = m.readTree(br);
-		JsonNode jd = jn.get("pubkey");
-
-		/** now get the public key and do the verify */
-		Security.addProvider(new BouncyCastleProvider());
-		PEMReader pemReader = new PEMReader(new StringReader(jd.textValue().replace("\\n","\n")));
-		RSAPublicKey pubKey = (RSAPublicKey) pemReader.readObject();
+		/** the public key of the SigningSubject, fetched over HTTPS only when not cached */
+		String subject = (String) parsed_token.get("SigningSubject");
+		if (subject == null)
+			return result;
+		SigningKey key = getSigningKey(subject, false);
 
 		/** http://docs.oracle.com/javase/6/docs/technotes/guides/security/crypto/CryptoSpec.html#KeyFactoryEx */
-		Signature s = Signature.getInstance("SHA1withRSA");
-		
+		Signature s = borrowSignature();
+		try {
+			result = verifySignature(s, key.pubKey, sig_data, sig);
+			/** the subject may have rotated its key, ask again unless we just did */
+			if (!result && System.currentTimeMillis() - key.fetched > KEY_RETRY_MS)
+				result = verifySignature(s, getSigningKey(subject, true).pubKey, sig_data, sig);
+		} finally {
+			signatures.offer(s);
+		}
+		return result;
+	};
+
+	private static boolean verifySignature(Signature s, RSAPublicKey pubKey, String sig_data, String sig)
+			throws InvalidKeyException, SignatureException, UnsupportedEncodingException {
 		s.initVerify(pubKey);
 		
 		/** update the data
@@ -234,10 +224,176 @@ public class KBaseAuthValidateToken {
 		byte[] sig_byte = javax.xml.bind.DatatypeConverter.parseHexBinary(sig);
 		
 		/** verification of signature*/
-		result = s.verify(sig_byte);
-	
-		return result;
-	}; 
+		return s.verify(sig_byte);
+	}
+
+	/** signing keys are fetched again after this long */
+	private static final long KEY_TTL_MS = 60 * 60 * 1000;
+	/** a signature that fails with a key older than this refetches the key once */
+	private static final long KEY_RETRY_MS = 5 * 60 * 1000;
+	/** subjects come from the token, so a client can make up any number of them */
+	private static final int MAX_KEYS = 100;
+
+	private static class SigningKey {
+		final RSAPublicKey pubKey;
+		final long fetched;
+
+		SigningKey(RSAPublicKey pubKey, long fetched) {
+			this.pubKey = pubKey;
+			this.fetched = fetched;
+		}
+	}
+
+	/** key: SigningSubject url, value: its parsed public key */
+	private static final ConcurrentMap<String, SigningKey> signingKeys = new ConcurrentHashMap<String, SigningKey>();
+	/** key: SigningSubject url, value: the fetch in progress for it */
+	private static final ConcurrentMap<String, FutureTask<SigningKey>> fetches = new ConcurrentHashMap<String, FutureTask<SigningKey>>();
+
+	/** Signature objects are not thread safe and costly to look up, reuse them */
+	private static final Queue<Signature> signatures = new ConcurrentLinkedQueue<Signature>();
+
+	private static Signature borrowSignature() throws NoSuchAlgorithmException {
+		Signature s = signatures.poll();
+		if (s == null)
+			s = Signature.getInstance("SHA1withRSA");
+		return s;
+	}
+
+	/**
+	 * The public key of a SigningSubject from the cache, fetched when missing,
+	 * older than the TTL or when refresh is set. Threads needing the same
+	 * subject wait for one fetch, other subjects are not held up by it. When
+	 * a fetch fails the key already cached is kept in use, so verification
+	 * survives short outages of the Authentication server.
+	 */
+	private static SigningKey getSigningKey(final String subject, boolean refresh)
+			throws IOException, NoSuchAlgorithmException, KeyManagementException {
+		SigningKey key = signingKeys.get(subject);
+		/** a refresh is skipped when another thread just did one */
+		if (key != null && System.currentTimeMillis() - key.fetched < (refresh ? KEY_RETRY_MS : KEY_TTL_MS))
+			return key;
+		FutureTask<SigningKey> task = fetches.get(subject);
+		if (task == null) {
+			FutureTask<SigningKey> created = new FutureTask<SigningKey>(new Callable<SigningKey>() {
+				public SigningKey call() throws Exception {
+					SigningKey fetched = new SigningKey(fetchSigningKey(subject), System.currentTimeMillis());
+					storeSigningKey(subject, fetched);
+					return fetched;
+				}
+			});
+			task = fetches.putIfAbsent(subject, created);
+			if (task == null) {
+				task = created;
+				try {
+					task.run();
+				} finally {
+					fetches.remove(subject, created);
+				}
+			}
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted fetching the key of " + subject);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				if (key == null)
+					throw (IOException) cause;
+				return key;
+			}
+			if (cause instanceof NoSuchAlgorithmException)
+				throw (NoSuchAlgorithmException) cause;
+			if (cause instanceof KeyManagementException)
+				throw (KeyManagementException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/** keeps at most MAX_KEYS subjects, making room from expired keys first, then the oldest */
+	private static void storeSigningKey(String subject, SigningKey key) {
+		if (signingKeys.size() >= MAX_KEYS && !signingKeys.containsKey(subject)) {
+			long now = System.currentTimeMillis();
+			String oldest = null;
+			long oldestFetched = Long.MAX_VALUE;
+			for (Map.Entry<String, SigningKey> e : signingKeys.entrySet()) {
+				if (now - e.getValue().fetched >= KEY_TTL_MS) {
+					signingKeys.remove(e.getKey(), e.getValue());
+				} else if (e.getValue().fetched < oldestFetched) {
+					oldest = e.getKey();
+					oldestFetched = e.getValue().fetched;
+				}
+			}
+			if (signingKeys.size() >= MAX_KEYS && oldest != null)
+				signingKeys.remove(oldest);
+		}
+		signingKeys.put(subject, key);
+	}
+
+	private static SSLSocketFactory trustAllFactory = null;
+
+	/**
+	 * Socket factory for the Authentication server, used on its connections
+	 * only so the JVM wide HTTPS defaults are left alone
+	 */
+	private static synchronized SSLSocketFactory getTrustAllFactory()
+			throws NoSuchAlgorithmException, KeyManagementException {
+		if (trustAllFactory == null) {
+			// Create a trust manager that does not validate certificate chains
+			TrustManager[] trustAllCerts = new TrustManager[] { 
+			  new X509TrustManager() {
+			    public X509Certificate[] getAcceptedIssuers() { 
+			      return new X509Certificate[0]; 
+			    }
+			    public void checkClientTrusted(X509Certificate[] certs, String authType) {}
+			    public void checkServerTrusted(X509Certificate[] certs, String authType) {}
+			}};
+			SSLContext sc = SSLContext.getInstance("SSL");
+			sc.init(null, trustAllCerts, new SecureRandom());
+			trustAllFactory = sc.getSocketFactory();
+		}
+		return trustAllFactory;
+	}
+
+	// Ignore differences between given hostname and certificate hostname
+	private static final HostnameVerifier trustAllHosts = new HostnameVerifier() {
+	  public boolean verify(String hostname, SSLSession session) { return true; }
+	};
+
+	static {
+		if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+			Security.addProvider(new BouncyCastleProvider());
+	}
+
+	private static RSAPublicKey fetchSigningKey(String subject)
+			throws IOException, NoSuchAlgorithmException, KeyManagementException {
+		/** make the request to Authentication server */
+		URL validation_url = new URL(subject);
+		HttpsURLConnection conn = (HttpsURLConnection) validation_url.openConnection(); 
+		conn.setSSLSocketFactory(getTrustAllFactory());
+		conn.setHostnameVerifier(trustAllHosts);
+		conn.setConnectTimeout(10000);
+		conn.setReadTimeout(10000);
+		InputStream in = conn.getInputStream();
+		try {
+			/** Encoding the HTTP response into JSON format */
+			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+			ObjectMapper m = new ObjectMapper();
+			JsonNode jn = m.readTree(br);
+			JsonNode jd = jn.get("pubkey");
+			if (jd == null)
+				throw new IOException("No pubkey from " + subject);
+
+			/** now get the public key */
+			PEMReader pemReader = new PEMReader(new StringReader(jd.textValue().replace("\\n","\n")));
+			return (RSAPublicKey) pemReader.readObject();
+		} finally {
+			in.close();
+		}
+	}
 	
 	/**
 	 * this function parse the user name information from a token string.
@@ -263,6 +419,31 @@ public class KBaseAuthValidateToken {
 		return username;
 	};
 	
+	/**
+	 * this function parse the expiry time from a token string.
+	 * 
+	 * @param token token is a string used to verify user identity.
+	 * @return the "expiry" value of the token in seconds since the epoch,
+	 * 		   -1 if the token has none.
+	 * 
+	 * */
+	public static long getExpiry(String token) {
+		if (token == null)
+			return -1;
+		
+		String[] splitted_token = token.split("\\|");
+		for (int i=0; i < splitted_token.length - 1; i++) {
+			if (splitted_token[i].startsWith("expiry=")) {
+				try {
+					return Long.parseLong(splitted_token[i].substring("expiry=".length()));
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	};
+	
 	/** 
 	 * Check whether the token string has user name "un" key word.
 	 * 
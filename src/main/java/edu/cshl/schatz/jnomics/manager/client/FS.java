@@ -17,7 +17,7 @@ import java.util.Properties;
         "These functions provide a method for managing a user's\n"+
         "workspace on the Cluster.\n"
 )
-@KbaseScript(prefix = "fs", exportFields = {"ls","shock_ls","mv","put","get","rm","rmr","put_pe","put_pe_i","put_se","mkdir","cat"})
+@KbaseScript(prefix = "fs", exportFields = {"ls","shock_ls","mv","put","get","rm","rmr","put_pe","put_pe_i","put_se","mkdir","cat","cp","concat","merge_parts"})
 public class FS implements ClientFunctionHandler{
 
     @Flag(shortForm = "-ls", longForm = "--listfiles", description = "List files and directories on Cluster")
@@ -55,6 +55,15 @@ public class FS implements ClientFunctionHandler{
 
     @Flag(shortForm = "-cat", longForm = "--cat", description = "Cat a file")
     public boolean cat;
+
+    @Flag(shortForm = "-cp", longForm = "--copy", description = "Copy a file on Cluster")
+    public boolean cp;
+
+    @Flag(shortForm = "-concat", longForm = "--concat", description = "Concatenate files on Cluster into one file")
+    public boolean concat;
+
+    @Flag(shortForm = "-merge_parts", longForm = "--merge_parts", description = "Merge part files of a job output on Cluster into one file")
+    public boolean merge_parts;
     
     
     @Override
@@ -84,7 +93,13 @@ public class FS implements ClientFunctionHandler{
         	handlerClass = ShockLs.class;
         }else if(cat){
 	    handlerClass = Cat.class;
-	}else{
+	}else if(cp){
+            handlerClass = Cp.class;
+        }else if(concat){
+            handlerClass = Concat.class;
+        }else if(merge_parts){
+            handlerClass = MergeParts.class;
+        }else{
             System.out.println(Utility.helpFromParameters(this.getClass()));
         }
 
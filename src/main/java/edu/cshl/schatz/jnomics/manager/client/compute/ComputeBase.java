@@ -3,6 +3,7 @@ package edu.cshl.schatz.jnomics.manager.client.compute;
 import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsCompute;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobValidation;
 import edu.cshl.schatz.jnomics.manager.client.ClientFunctionHandler;
 import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
 import edu.cshl.schatz.jnomics.manager.server.JnomicsFileSystem;
@@ -23,7 +24,33 @@ public class ComputeBase implements ClientFunctionHandler {
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         client = JnomicsThriftClient.getComputeClient(properties);
-        fsclient = JnomicsThriftClient.getFsClient(properties);
+        //one connection for both when the services are multiplexed
+        fsclient = JnomicsThriftClient.getFsClient(properties, client);
         auth = JnomicsThriftClient.getAuthentication(properties);
     }
+
+    /**
+     * Check inputs, output and genome with the data server in one call,
+     * printing any problems found
+     * @return true if the job can be submitted
+     */
+    protected boolean validateInputs(List<String> inputs, String out, String organism) throws Exception {
+        JnomicsThriftJobValidation validation = fsclient.validateJobInputs(inputs, out,
+                null == organism ? "" : organism, auth);
+        boolean valid = true;
+        for(String file : validation.getMissingInputs()){
+            System.out.println("ERROR : " + file + " does'nt exist");
+            valid = false;
+        }
+        if(validation.isOutputExists()){
+            System.out.println("ERROR : Output directory already exists");
+            valid = false;
+        }
+        if(!validation.isGenomeAvailable()){
+            System.out.println("ERROR : " + organism + " does'nt exist in the repository");
+            System.out.println("try jk-compute-list-genomes to list the supported genomes");
+            valid = false;
+        }
+        return valid;
+    }
 }
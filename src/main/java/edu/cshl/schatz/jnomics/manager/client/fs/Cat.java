@@ -1,8 +1,12 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
 
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -20,12 +24,18 @@ public class Cat extends FSBase{
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-no_compress", longForm = "--no_compress")
+    public boolean noCompress;
+
+    @Parameter(shortForm = "-parallel", longForm = "--parallel", description = "number of connections to download with (optional)")
+    public String parallel;
+
 
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
 	super.handle(remainingArgs, properties);
 	if(remainingArgs.size() < 1 || help){
-            System.out.println("-cat <hdfs_file> ");
+            System.out.println("-cat [-parallel=<connections>] [-no_compress] <hdfs_file> ");
             return;
 	}else{
 	    String remoteFile = remainingArgs.get(0);
@@ -33,14 +43,23 @@ public class Cat extends FSBase{
             if(1 != stats.size())
                 throw new Exception("Remote file does not exist or is not a single file");
 	    long remoteLen = stats.get(0).getLength();
-	    JnomicsThriftHandle handle = client.open(remoteFile, auth);
+	    if(null != parallel && Integer.parseInt(parallel) > 1){
+		new ParallelDownload(properties, auth, Integer.parseInt(parallel), noCompress)
+			.stream(remoteFile, remoteLen, System.out, client);
+		return;
+	    }
+	    JnomicsThriftHandle handle = client.openCompressed(remoteFile,
+                    JnomicsFrameCodec.offeredFor(remoteFile, noCompress), auth);
+            JnomicsFrameCodec codec = JnomicsFrameCodec.forName(handle.getCodec());
+            Authentication handleAuth = JnomicsThriftClient.handleAuth(handle, auth);
 	    
 	    ByteBuffer buffer;
-            while((buffer = client.read(handle,auth)).remaining() > 0){
-                System.out.write(buffer.array());
+            while((buffer = codec.decompress(client.read(handle,handleAuth))).remaining() > 0){
+                System.out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
             }
             
-            client.close(handle,auth);
+            System.out.flush();
+            client.close(handle,handleAuth);
 	}
     }
 }
@@ -0,0 +1,33 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * User: james
+ */
+public class Concat extends FSBase{
+
+    @Flag(shortForm = "-h", longForm = "--help")
+    public boolean help;
+
+    @Override
+    public void handle(List<String> remainingArgs, Properties properties) throws Exception {
+        super.handle(remainingArgs, properties);
+
+        if(remainingArgs.size() < 2 || help){
+            System.out.println("fs -concat <file> [file ...] <dest>");
+            return;
+        }
+
+        List<String> srcs = remainingArgs.subList(0, remainingArgs.size() - 1);
+        String dest = remainingArgs.get(remainingArgs.size() - 1);
+        if(client.concat(srcs, dest, auth)){
+            System.out.println("Concatenated " + srcs.size() + " files into " + dest);
+        }else{
+            System.out.println("Failed to concatenate files into " + dest);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.io.FastqParser;
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.fs.JnomicsThriftFileSystem;
+import edu.cshl.schatz.jnomics.ob.ReadCollectionWritable;
+import edu.cshl.schatz.jnomics.ob.ReadWritable;
+import edu.cshl.schatz.jnomics.util.FileUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads fastq into .se and .pe SequenceFiles through the data server,
+ * for put_se, put_pe and put_pe_i.
+ *
+ * Each input file gets a thread that decompresses it into raw blocks and a
+ * thread that parses the blocks into batches of reads, the calling thread
+ * pairs up mate batches and deals them round robin to one serializer thread
+ * per output shard. With more than one shard the output is a directory of
+ * part files and every shard is written over its own data server
+ * connection and handle, so shards upload side by side and jobs reading
+ * the directory start with evenly sized splits. The output stream of
+ * JnomicsThriftFileSystem sends on its own thread, so gunzip, parsing,
+ * serialization and the network all overlap. Blocks and batches come from
+ * fixed pools and are handed back once used, so nothing is allocated per
+ * read past the parser's own strings.
+ */
+public class FastqLoadPipeline {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int BLOCKS = 8;
+    /** reads per batch, even so interleaved pairs never straddle two **/
+    private static final int BATCH_SIZE = 4096;
+    private static final int BATCHES = 4;
+
+    /** decompressed bytes handed from a decompress to a parse thread **/
+    private static class Block {
+        final byte[] data = new byte[BLOCK_SIZE];
+        int length;
+    }
+
+    /** reads handed from a parse thread on, the slots are reused **/
+    private static class Batch {
+        final String[][] reads = new String[BATCH_SIZE][4];
+        /** pool the batch goes back to once written **/
+        final BlockingQueue<Batch> pool;
+        int size;
+
+        Batch(BlockingQueue<Batch> pool){
+            this.pool = pool;
+        }
+    }
+
+    /** one batch from each mate, or one single end or interleaved batch **/
+    private static class Pair {
+        final Batch first;
+        final Batch second;
+
+        Pair(Batch first, Batch second){
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    private static final Block END_BLOCK = new Block();
+    private static final Batch END_BATCH = new Batch(null);
+    private static final Pair END_PAIR = new Pair(null, null);
+
+    /** the thread side of one input file, its pools and queues **/
+    private class Input {
+        final BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<Block>(BLOCKS);
+        final BlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+        final BlockingQueue<Batch> freeBatches;
+        final BlockingQueue<Batch> batches;
+
+        Input(final File file){
+            //enough batches to keep every shard busy
+            int pool = BATCHES + 2 * shards;
+            freeBatches = new ArrayBlockingQueue<Batch>(pool);
+            batches = new ArrayBlockingQueue<Batch>(pool + 1);
+            for(int i = 0; i < BLOCKS; i++){
+                freeBlocks.add(new Block());
+            }
+            for(int i = 0; i < pool; i++){
+                freeBatches.add(new Batch(freeBatches));
+            }
+            start("decompress-" + file.getName(), new Stage() {
+                @Override
+                public void run() throws Exception {
+                    decompress(file, Input.this);
+                }
+            });
+            start("parse-" + file.getName(), new Stage() {
+                @Override
+                public void run() throws Exception {
+                    parse(Input.this);
+                }
+            });
+        }
+    }
+
+    private final Properties properties;
+    private final Authentication auth;
+    private final int shards;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param shards number of SequenceFiles to write, more than one makes the output a directory
+     */
+    public FastqLoadPipeline(Properties properties, Authentication auth, int shards){
+        if(shards < 1)
+            throw new IllegalArgumentException("Invalid shard count: " + shards);
+        this.properties = properties;
+        this.auth = auth;
+        this.shards = shards;
+    }
+
+    /**
+     * Load a single end file
+     */
+    public void loadSingle(File reads, String output, JnomicsData.Client client) throws Exception {
+        run(new File[]{reads}, false, output, client);
+    }
+
+    /**
+     * Load two mate files
+     */
+    public void loadPaired(File mate1, File mate2, String output, JnomicsData.Client client) throws Exception {
+        run(new File[]{mate1, mate2}, true, output, client);
+    }
+
+    /**
+     * Load an interleaved file, mates alternating
+     */
+    public void loadInterleaved(File interleaved, String output, JnomicsData.Client client) throws Exception {
+        run(new File[]{interleaved}, true, output, client);
+    }
+
+    private void run(File[] files, final boolean paired, String output, JnomicsData.Client client)
+            throws Exception {
+        for(File file : files){
+            if(!file.exists())
+                throw new Exception("Can't find file: " + file);
+        }
+        List<JnomicsData.Client> opened = new ArrayList<JnomicsData.Client>();
+        try{
+            Path out = new Path(output);
+            if(shards > 1)
+                client.mkdir(output, auth);
+            List<BlockingQueue<Pair>> shardQueues = new ArrayList<BlockingQueue<Pair>>();
+            List<Thread> serializers = new ArrayList<Thread>();
+            for(int i = 0; i < shards; i++){
+                //the first shard shares the command's connection, the rest get their own
+                JnomicsData.Client shardClient = client;
+                if(0 != i){
+                    shardClient = JnomicsThriftClient.getFsClient(properties);
+                    opened.add(shardClient);
+                }
+                final FileSystem fs = new JnomicsThriftFileSystem(shardClient, auth);
+                final Path shard = 1 == shards ? out : new Path(out, String.format("part-%05d", i));
+                final BlockingQueue<Pair> queue = new ArrayBlockingQueue<Pair>(2);
+                shardQueues.add(queue);
+                serializers.add(start("serialize-" + i, new Stage() {
+                    @Override
+                    public void run() throws Exception {
+                        serialize(fs, shard, paired, queue);
+                    }
+                }));
+            }
+
+            List<Input> inputs = new ArrayList<Input>();
+            for(File file : files){
+                inputs.add(new Input(file));
+            }
+            Input first = inputs.get(0);
+            Input second = 2 == inputs.size() ? inputs.get(1) : null;
+            boolean interleaved = paired && null == second;
+
+            int next = 0;
+            while(true){
+                Batch batch = take(first.batches);
+                Batch mate = null;
+                if(null != second){
+                    mate = take(second.batches);
+                    if(batch.size != mate.size)
+                        throw new IOException("Paired fastq files have a different number of reads");
+                }else if(interleaved && 0 != batch.size % 2){
+                    throw new IOException("Interleaved fastq has an odd number of reads");
+                }
+                if(END_BATCH == batch)
+                    break;
+                put(shardQueues.get(next), new Pair(batch, mate));
+                next = (next + 1) % shards;
+            }
+            for(BlockingQueue<Pair> queue : shardQueues){
+                put(queue, END_PAIR);
+            }
+            for(Thread t : serializers){
+                t.join();
+            }
+            rethrow();
+        }catch(Exception e){
+            failure.compareAndSet(null, e);
+            throw e;
+        }finally{
+            for(Thread t : threads){
+                t.interrupt();
+            }
+            for(JnomicsData.Client c : opened){
+                c.getInputProtocol().getTransport().close();
+            }
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private Thread start(String name, final Stage stage){
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    stage.run();
+                }catch(InterruptedException e){
+                    //another stage failed and we were told to stop
+                }catch(Throwable e){
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }, "jnomics-load-" + name);
+        t.setDaemon(true);
+        t.start();
+        threads.add(t);
+        return t;
+    }
+
+    private void decompress(File file, Input input) throws Exception {
+        InputStream in = FileUtil.getInputStreamWrapperFromExtension(new FileInputStream(file),
+                FileUtil.getExtension(file.getName()));
+        try{
+            while(true){
+                Block block = take(input.freeBlocks);
+                int len = 0, r;
+                while(len < BLOCK_SIZE && -1 != (r = in.read(block.data, len, BLOCK_SIZE - len))){
+                    len += r;
+                }
+                if(0 == len){
+                    input.freeBlocks.add(block);
+                    break;
+                }
+                block.length = len;
+                put(input.blocks, block);
+            }
+            put(input.blocks, END_BLOCK);
+        }finally{
+            in.close();
+        }
+    }
+
+    private void parse(Input input) throws Exception {
+        FastqParser parser = new FastqParser(new BlockStream(input));
+        try{
+            Batch batch = take(input.freeBatches);
+            batch.size = 0;
+            for(FastqParser.FastqRecord record : parser){
+                String[] slot = batch.reads[batch.size++];
+                slot[0] = record.getName();
+                slot[1] = record.getSequence();
+                slot[2] = record.getDescription();
+                slot[3] = record.getQuality();
+                if(BATCH_SIZE == batch.size){
+                    put(input.batches, batch);
+                    batch = take(input.freeBatches);
+                    batch.size = 0;
+                }
+            }
+            if(0 != batch.size)
+                put(input.batches, batch);
+            else
+                input.freeBatches.add(batch);
+            put(input.batches, END_BATCH);
+        }finally{
+            parser.close();
+        }
+    }
+
+    private void serialize(FileSystem fs, Path out, boolean paired, BlockingQueue<Pair> pairs) throws Exception {
+        NullWritable sfValue = NullWritable.get();
+        ReadCollectionWritable sfKey = new ReadCollectionWritable();
+        ReadWritable r1 = new ReadWritable();
+        ReadWritable r2 = new ReadWritable();
+        sfKey.addRead(r1);
+        if(paired)
+            sfKey.addRead(r2);
+        Text keyName = new Text();
+        sfKey.setName(keyName);
+
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, new Configuration(), out,
+                sfKey.getClass(), sfValue.getClass());
+        try{
+            Pair pair;
+            while(END_PAIR != (pair = take(pairs))){
+                String[][] reads = pair.first.reads;
+                boolean interleaved = paired && null == pair.second;
+                String[][] mates = null == pair.second ? reads : pair.second.reads;
+                int step = interleaved ? 2 : 1;
+                int offset = interleaved ? 1 : 0;
+                for(int i = 0; i < pair.first.size; i += step){
+                    String[] read = reads[i];
+                    r1.setAll(read[0], read[1], read[2], read[3]);
+                    if(paired){
+                        String[] mate = mates[i + offset];
+                        r2.setAll(mate[0], mate[1], mate[2], mate[3]);
+                        keyName.set(pairName(read[0]));
+                    }else{
+                        keyName.set(read[0]);
+                    }
+                    writer.append(sfKey, sfValue);
+                    if(0 == count.incrementAndGet() % 100000){
+                        System.out.println(count.get());
+                    }
+                }
+                recycle(pair);
+            }
+        }finally{
+            writer.close();
+        }
+    }
+
+    private static void recycle(Pair pair){
+        pair.first.pool.add(pair.first);
+        if(null != pair.second)
+            pair.second.pool.add(pair.second);
+    }
+
+    /** name of a read with any /1 mate suffix removed **/
+    private static String pairName(String name){
+        if(name.endsWith("/1") || name.endsWith("/2"))
+            return name.substring(0, name.length() - 2);
+        return name;
+    }
+
+    /** the parser's view of the blocks a decompress thread produces **/
+    private class BlockStream extends InputStream {
+        private final Input input;
+        private Block block = null;
+        private int pos = 0;
+
+        BlockStream(Input input){
+            this.input = input;
+        }
+
+        private boolean next() throws IOException {
+            if(END_BLOCK == block)
+                return false;
+            if(null != block && pos < block.length)
+                return true;
+            if(null != block)
+                input.freeBlocks.add(block);
+            try{
+                block = take(input.blocks);
+            }catch(IOException e){
+                throw e;
+            }catch(Exception e){
+                //another stage failed, the parser only knows how to report IOExceptions
+                throw new IOException(e.toString());
+            }
+            pos = 0;
+            return END_BLOCK != block;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!next())
+                return -1;
+            return block.data[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(0 == len)
+                return 0;
+            if(!next())
+                return -1;
+            int n = Math.min(len, block.length - pos);
+            System.arraycopy(block.data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    /** queue put that gives up once another stage has failed **/
+    private <T> void put(BlockingQueue<T> queue, T item) throws Exception {
+        while(!queue.offer(item, 1, TimeUnit.SECONDS)){
+            rethrow();
+        }
+    }
+
+    /** queue take that gives up once another stage has failed **/
+    private <T> T take(BlockingQueue<T> queue) throws Exception {
+        T item;
+        while(null == (item = queue.poll(1, TimeUnit.SECONDS))){
+            rethrow();
+        }
+        return item;
+    }
+
+    private void rethrow() throws Exception {
+        Throwable t = failure.get();
+        if(null == t)
+            return;
+        if(t instanceof Exception)
+            throw (Exception) t;
+        throw new IOException(t.toString());
+    }
+}
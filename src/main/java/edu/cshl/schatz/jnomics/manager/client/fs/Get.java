@@ -1,8 +1,12 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -19,12 +23,27 @@ public class Get extends FSBase{
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-no_compress", longForm = "--no_compress")
+    public boolean noCompress;
+
+    @Parameter(shortForm = "-parallel", longForm = "--parallel", description = "number of connections to download with (optional)")
+    public String parallel;
+
+    @Flag(shortForm = "-resume", longForm = "--resume")
+    public boolean resume;
+
+    @Parameter(shortForm = "-retries", longForm = "--retries", description = "reconnect attempts after a dropped connection (optional)")
+    public String retries;
+
+    /** matches the per-call cap of readAt on the data server **/
+    private static final int CHUNK_SIZE = 2000000;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 1 || help){
-            System.out.println("-get <hdfs_file> [local_destination_name]");
+            System.out.println("-get [-parallel=<connections>] [-no_compress] [-resume] [-retries=<n>] <hdfs_file> [local_destination_name]");
             return;
         }else{
             String remoteFile = remainingArgs.get(0);
@@ -34,28 +53,62 @@ public class Get extends FSBase{
 
             long remoteLen = stats.get(0).getLength();
 
-            JnomicsThriftHandle handle = client.open(remoteFile, auth);
             String local = new File(remoteFile).getName();
             if(remainingArgs.size() == 2)
                 local = remainingArgs.get(1);
 
             File localFile = new File(local);
-            if(localFile.exists()){
-                client.close(handle,auth);
+            if(localFile.exists() && !resume){
                 throw new Exception("Local File: " + localFile + " already exists");
             }
-            OutputStream localOut = new FileOutputStream(localFile);
-
-            ByteBuffer buffer;
-            long totalTransfer = 0;
-            while((buffer = client.read(handle,auth)).remaining() > 0){
-                localOut.write(buffer.array());
-                totalTransfer += buffer.remaining();
-                System.out.print("\r"+totalTransfer+"/"+remoteLen+" " + ((float)totalTransfer)/remoteLen * 100 + "%");
+
+            //a parallel download fills the file out of order, only its checkpoint can resume it
+            boolean partialParallel = resume && ParallelDownload.hasCheckpoint(localFile);
+            if((null != parallel && Integer.parseInt(parallel) > 1) || partialParallel){
+                int connections = null == parallel ? 1 : Integer.parseInt(parallel);
+                new ParallelDownload(properties, auth, connections, noCompress)
+                        .download(remoteFile, remoteLen, localFile, client, resume, retries);
+                return;
+            }
+
+            //whatever is already on local disk is the checkpoint, ask only for the rest
+            long totalTransfer = localFile.exists() ? localFile.length() : 0;
+            if(totalTransfer > remoteLen)
+                throw new Exception("Local File: " + localFile + " is larger than " + remoteFile);
+            OutputStream localOut = new FileOutputStream(localFile, true);
+            TransferRetries retry = new TransferRetries(properties, retries);
+            try{
+                while(true){
+                    try{
+                        JnomicsThriftHandle handle = client.openCompressed(remoteFile,
+                                JnomicsFrameCodec.offeredFor(remoteFile, noCompress), auth);
+                        JnomicsFrameCodec codec = JnomicsFrameCodec.forName(handle.getCodec());
+                        Authentication handleAuth = JnomicsThriftClient.handleAuth(handle, auth);
+                        while(totalTransfer < remoteLen){
+                            ByteBuffer buffer = codec.decompress(client.readAt(handle, totalTransfer,
+                                    (int)Math.min(CHUNK_SIZE, remoteLen - totalTransfer), handleAuth));
+                            if(0 == buffer.remaining())
+                                throw new Exception("Unexpected end of " + remoteFile + " at " + totalTransfer);
+                            localOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                            retry.succeeded();
+                            totalTransfer += buffer.remaining();
+                            System.out.print("\r"+totalTransfer+"/"+remoteLen+" " + ((float)totalTransfer)/remoteLen * 100 + "%");
+                        }
+                        client.close(handle,handleAuth);
+                        break;
+                    }catch(Exception e){
+                        if(!retry.shouldRetry(e)){
+                            System.err.println("\nDownload failed, continue it with -resume");
+                            throw e;
+                        }
+                        System.err.println("\nConnection lost (" + e.getMessage() + "), reconnecting");
+                        client = retry.reconnect(client);
+                    }
+                }
+            }finally{
+                localOut.close();
             }
             System.out.println();
-            localOut.close();
-            client.close(handle,auth);
         }
     }
 }
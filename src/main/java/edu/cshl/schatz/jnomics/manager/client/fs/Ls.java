@@ -1,6 +1,7 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftListing;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
 
 import java.util.List;
@@ -11,15 +12,20 @@ import java.util.Properties;
  */
 public class Ls extends FSBase {
 
+    private static final int PAGE_SIZE = 1000;
+
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-R", longForm = "--recursive")
+    public boolean recursive;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs,properties);
 
         if(help){
-            System.out.println("-ls [directory]");
+            System.out.println("-ls [-R] [directory]");
             return;
         }
 
@@ -28,17 +34,26 @@ public class Ls extends FSBase {
             dest = remainingArgs.get(0);
         }
 
-        List<JnomicsThriftFileStatus> stats= client.listStatus(dest, auth);
-        System.out.println("Found "+ stats.size() + " items");
-        for(JnomicsThriftFileStatus status: stats){
-            System.out.printf("%s\t%2d\t%s\t%s\t%14d\t%s\n",
-                    status.getPermission(),
-                    status.getReplication(),
-                    status.getOwner(),
-                    status.getGroup(),
-                    status.getLength(),
-                    status.getPath());
-        }
+        //print each page as it arrives rather than waiting for the whole listing
+        long count = 0;
+        String cursor = "";
+        JnomicsThriftListing page;
+        do{
+            page = client.listStatusPaged(dest, cursor, PAGE_SIZE, recursive, auth);
+            for(JnomicsThriftFileStatus status: page.getStatuses()){
+                System.out.printf("%s\t%2d\t%s\t%s\t%14d\t%s\n",
+                        status.getPermission(),
+                        status.getReplication(),
+                        status.getOwner(),
+                        status.getGroup(),
+                        status.getLength(),
+                        status.getPath());
+            }
+            System.out.flush();
+            count += page.getStatuses().size();
+            cursor = page.getCursor();
+        }while(page.isMore());
+        System.out.println("Found "+ count + " items");
     }
 
 }
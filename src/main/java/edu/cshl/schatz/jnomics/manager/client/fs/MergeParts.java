@@ -0,0 +1,31 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * User: james
+ */
+public class MergeParts extends FSBase{
+
+    @Flag(shortForm = "-h", longForm = "--help")
+    public boolean help;
+
+    @Override
+    public void handle(List<String> remainingArgs, Properties properties) throws Exception {
+        super.handle(remainingArgs, properties);
+
+        if(remainingArgs.size() < 2 || help){
+            System.out.println("fs -merge_parts <job_output_dir> <dest>");
+            return;
+        }
+
+        if(client.mergeParts(remainingArgs.get(0), remainingArgs.get(1), auth)){
+            System.out.println("Merged parts of " + remainingArgs.get(0) + " into " + remainingArgs.get(1));
+        }else{
+            System.out.println("Failed to merge parts of "+remainingArgs.get(0)+" into "+remainingArgs.get(1));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a remote file over several data server connections.
+ * All connections share one read handle and pull disjoint ranges
+ * with positioned reads (readAt), so a dropped connection is simply
+ * reopened and the chunk asked for again.
+ */
+public class ParallelDownload {
+
+    /** matches the per-call cap of readAt on the data server **/
+    private static final int CHUNK_SIZE = 2000000;
+
+    private final Properties properties;
+    private final Authentication auth;
+    private final int connections;
+    private final boolean noCompress;
+
+    private final AtomicLong transferred = new AtomicLong();
+
+    public ParallelDownload(Properties properties, Authentication auth, int connections, boolean noCompress){
+        this.properties = properties;
+        this.auth = auth;
+        this.connections = connections;
+        this.noCompress = noCompress;
+    }
+
+    private JnomicsThriftHandle open(String remoteFile, JnomicsData.Client client) throws Exception {
+        return client.openCompressed(remoteFile, JnomicsFrameCodec.offeredFor(remoteFile, noCompress), auth);
+    }
+
+    /** readAt one chunk and check that all of it arrived **/
+    private ByteBuffer readChunk(JnomicsData.Client client, JnomicsThriftHandle handle, JnomicsFrameCodec codec,
+                                 long offset, int length) throws Exception {
+        ByteBuffer buffer = codec.decompress(client.readAt(handle, offset, length, JnomicsThriftClient.handleAuth(handle, auth)));
+        if(buffer.remaining() != length)
+            throw new Exception("Short read at offset " + offset + ": expected " +
+                    length + " bytes, got " + buffer.remaining());
+        return buffer;
+    }
+
+    /** Records finished chunks next to the local file so an interrupted download can resume **/
+    private static class Checkpoint {
+        private final File file;
+        private final Set<Long> done = new HashSet<Long>();
+        private DataOutputStream out;
+
+        Checkpoint(File localFile){
+            File abs = localFile.getAbsoluteFile();
+            file = new File(abs.getParentFile(), "." + abs.getName() + ".jnomics-resume");
+        }
+
+        /** Load finished chunks, a checkpoint cut short mid record loses only that record **/
+        void load(File localFile) throws IOException {
+            if(!file.exists()){
+                //no checkpoint: the local file was written front to back by a plain get
+                for(long pos = 0; pos + CHUNK_SIZE <= localFile.length(); pos += CHUNK_SIZE){
+                    done.add(pos);
+                }
+                return;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try{
+                while(true){
+                    done.add(in.readLong());
+                }
+            }catch(EOFException e){
+            }finally{
+                in.close();
+            }
+        }
+
+        void open() throws IOException {
+            out = new DataOutputStream(new FileOutputStream(file, true));
+        }
+
+        boolean isDone(long chunk){
+            return done.contains(chunk);
+        }
+
+        synchronized void record(long chunk) throws IOException {
+            out.writeLong(chunk);
+            out.flush();
+        }
+
+        void close() throws IOException {
+            if(null != out)
+                out.close();
+        }
+
+        void delete(){
+            file.delete();
+        }
+    }
+
+    /** true if localFile is a parallel download that has not finished **/
+    public static boolean hasCheckpoint(File localFile){
+        return new Checkpoint(localFile).file.exists();
+    }
+
+    /**
+     * The file a parallel download is written to. It is sized up front and
+     * has holes until every range is in, so it only gets the local name
+     * once complete
+     */
+    private static File partialFile(File localFile){
+        File abs = localFile.getAbsoluteFile();
+        return new File(abs.getParentFile(), "." + abs.getName() + ".jnomics-part");
+    }
+
+    /**
+     * Fetch the remote file into localFile. Every range is written at its
+     * own offset through a FileChannel, so ranges may complete in any order.
+     * Ranges are whole chunks and every finished chunk is checkpointed, with
+     * resume set the chunks already on disk are skipped
+     */
+    public void download(String remoteFile, final long remoteLen, File localFile, JnomicsData.Client client,
+                         boolean resume, final String retries) throws Exception {
+        final Checkpoint checkpoint = new Checkpoint(localFile);
+        File partial = partialFile(localFile);
+        if(resume){
+            //a plain get left its partial file under the local name
+            if(!partial.exists() && localFile.exists() && !localFile.renameTo(partial))
+                throw new IOException("Could not move " + localFile + " to " + partial + " to resume it");
+            checkpoint.load(partial);
+        }else{
+            checkpoint.delete();
+            partial.delete();
+        }
+        final JnomicsThriftHandle handle = open(remoteFile, client);
+        long nchunks = (remoteLen + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int nranges = (int)Math.max(1, Math.min(connections, nchunks));
+        long rangeSize = ((nchunks + nranges - 1) / nranges) * CHUNK_SIZE;
+
+        RandomAccessFile raf = new RandomAccessFile(partial, "rw");
+        final FileChannel channel = raf.getChannel();
+        ExecutorService pool = Executors.newFixedThreadPool(nranges);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        try{
+            checkpoint.open();
+            raf.setLength(remoteLen);
+            for(int i = 0; i < nranges; i++){
+                final long start = Math.min(remoteLen, i * rangeSize);
+                final long end = Math.min(remoteLen, start + rangeSize);
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        fetchRange(handle, channel, start, end, remoteLen, checkpoint, retries);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Void> result : results){
+                try{
+                    result.get();
+                }catch(ExecutionException e){
+                    //report what the transfer threw, not the executor's wrapper
+                    if(e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        }catch(Exception e){
+            for(Future<Void> result : results){
+                result.cancel(true);
+            }
+            System.err.println("\nDownload failed, continue it with -resume");
+            throw e;
+        }finally{
+            pool.shutdown();
+            raf.close();
+            checkpoint.close();
+            client.close(handle, JnomicsThriftClient.handleAuth(handle, auth));
+        }
+        if(!partial.renameTo(localFile))
+            throw new IOException("Could not move finished download " + partial + " to " + localFile);
+        checkpoint.delete();
+        System.out.println();
+    }
+
+    /**
+     * Fetch the remote file in order into out, keeping up to one chunk
+     * per connection in flight
+     */
+    public void stream(String remoteFile, long remoteLen, OutputStream out, JnomicsData.Client client) throws Exception {
+        final JnomicsThriftHandle handle = open(remoteFile, client);
+        final JnomicsFrameCodec codec = JnomicsFrameCodec.forName(handle.getCodec());
+        final BlockingQueue<JnomicsData.Client> clients = new ArrayBlockingQueue<JnomicsData.Client>(connections);
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        LinkedList<Future<ByteBuffer>> window = new LinkedList<Future<ByteBuffer>>();
+        try{
+            for(int i = 0; i < connections; i++){
+                clients.add(JnomicsThriftClient.getFsClient(properties));
+            }
+            long next = 0;
+            while(next < remoteLen || !window.isEmpty()){
+                while(next < remoteLen && window.size() < connections){
+                    final long offset = next;
+                    final int length = (int)Math.min(CHUNK_SIZE, remoteLen - offset);
+                    window.add(pool.submit(new Callable<ByteBuffer>() {
+                        @Override
+                        public ByteBuffer call() throws Exception {
+                            JnomicsData.Client c = clients.take();
+                            try{
+                                return readChunk(c, handle, codec, offset, length);
+                            }finally{
+                                clients.put(c);
+                            }
+                        }
+                    }));
+                    next += length;
+                }
+                ByteBuffer buffer;
+                try{
+                    buffer = window.removeFirst().get();
+                }catch(ExecutionException e){
+                    if(e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            out.flush();
+        }catch(Exception e){
+            for(Future<ByteBuffer> f : window){
+                f.cancel(true);
+            }
+            throw e;
+        }finally{
+            pool.shutdown();
+            for(JnomicsData.Client c : clients){
+                c.getInputProtocol().getTransport().close();
+            }
+            client.close(handle, JnomicsThriftClient.handleAuth(handle, auth));
+        }
+    }
+
+    private void fetchRange(JnomicsThriftHandle handle, FileChannel channel, long start, long end,
+                            long remoteLen, Checkpoint checkpoint, String retries) throws Exception {
+        TransferRetries retry = new TransferRetries(properties, retries);
+        JnomicsData.Client client = JnomicsThriftClient.getFsClient(properties);
+        JnomicsFrameCodec codec = JnomicsFrameCodec.forName(handle.getCodec());
+        try{
+            long pos = start;
+            while(pos < end){
+                int length = (int)Math.min(CHUNK_SIZE, end - pos);
+                if(!checkpoint.isDone(pos)){
+                    ByteBuffer buffer;
+                    try{
+                        buffer = readChunk(client, handle, codec, pos, length);
+                    }catch(Exception e){
+                        if(!retry.shouldRetry(e))
+                            throw e;
+                        client = retry.reconnect(client);
+                        continue;
+                    }
+                    retry.succeeded();
+                    long writePos = pos;
+                    while(buffer.hasRemaining()){
+                        writePos += channel.write(buffer, writePos);
+                    }
+                    checkpoint.record(pos);
+                }
+                pos += length;
+                long total = transferred.addAndGet(length);
+                System.out.print("\r"+total+"/"+remoteLen+" " + ((float)total)/remoteLen * 100 + "%");
+            }
+        }finally{
+            client.getInputProtocol().getTransport().close();
+        }
+    }
+}
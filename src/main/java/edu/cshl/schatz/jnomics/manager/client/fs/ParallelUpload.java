@@ -0,0 +1,172 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftUploadStatus;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a local file over several data server connections.
+ * The file is split into contiguous ranges, each range is written
+ * to its own hidden part file and the server joins the parts into
+ * the destination once every range has been sent. Every range is its
+ * own upload session, so a dropped connection only resends the data
+ * the server had not committed for that range.
+ */
+public class ParallelUpload {
+
+    private static final int CHUNK_SIZE = 1000000;
+
+    /** pipelined chunks sent between acknowledgements from the data server **/
+    private static final int FLUSH_INTERVAL = 64;
+
+    private final Properties properties;
+    private final Authentication auth;
+    private final int connections;
+    private final boolean noCompress;
+    private final String retries;
+
+    private final AtomicLong transferred = new AtomicLong();
+
+    public ParallelUpload(Properties properties, Authentication auth, int connections, boolean noCompress,
+                          String retries){
+        this.properties = properties;
+        this.auth = auth;
+        this.connections = connections;
+        this.noCompress = noCompress;
+        this.retries = retries;
+    }
+
+    /** Hidden part name next to dest, skipped by mapreduce input listing **/
+    public static String partName(String dest, int part){
+        int slash = dest.lastIndexOf('/');
+        return dest.substring(0, slash + 1) + "." + dest.substring(slash + 1) + ".part-" + part;
+    }
+
+    public void upload(File inFile, String dest, JnomicsData.Client client) throws Exception {
+        final long fsize = inFile.length();
+        //no point opening more connections than there are chunks
+        int nparts = (int)Math.max(1, Math.min(connections, (fsize + CHUNK_SIZE - 1) / CHUNK_SIZE));
+        long rangeSize = (fsize + nparts - 1) / nparts;
+
+        final RandomAccessFile raf = new RandomAccessFile(inFile, "r");
+        final FileChannel channel = raf.getChannel();
+        final List<String> codecs = JnomicsFrameCodec.offeredFor(inFile.getName(), noCompress);
+        ExecutorService pool = Executors.newFixedThreadPool(nparts);
+        List<String> parts = new ArrayList<String>();
+        List<String> sessions = new ArrayList<String>();
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        try{
+            for(int i = 0; i < nparts; i++){
+                final String part = partName(dest, i);
+                final long start = i * rangeSize;
+                final long end = Math.min(fsize, start + rangeSize);
+                final String session = client.startUpload(part, auth);
+                parts.add(part);
+                sessions.add(session);
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        sendRange(channel, start, end, session, fsize, codecs);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Void> result : results){
+                try{
+                    result.get();
+                }catch(ExecutionException e){
+                    //report what the transfer threw, not the executor's wrapper
+                    if(e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        }catch(Exception e){
+            for(Future<Void> result : results){
+                result.cancel(true);
+            }
+            for(String session : sessions){
+                try{
+                    client.abortUpload(session, auth);
+                }catch(Exception ignore){
+                }
+            }
+            for(String part : parts){
+                try{
+                    client.remove(part, false, auth);
+                }catch(Exception ignore){
+                }
+            }
+            throw e;
+        }finally{
+            pool.shutdown();
+            raf.close();
+        }
+        System.out.println();
+        client.joinParts(parts, dest, auth);
+    }
+
+    private void sendRange(FileChannel channel, long start, long end, String session, long fsize,
+                           List<String> codecs) throws Exception {
+        TransferRetries retry = new TransferRetries(properties, retries);
+        JnomicsData.Client client = JnomicsThriftClient.getFsClient(properties);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long sent = 0;
+        try{
+            while(true){
+                try{
+                    JnomicsThriftUploadStatus status = client.resumeUpload(session, codecs, auth);
+                    JnomicsFrameCodec codec = JnomicsFrameCodec.forName(status.getHandle().getCodec());
+                    Authentication handleAuth = JnomicsThriftClient.handleAuth(status.getHandle(), auth);
+                    long pos = start + status.getOffset();
+                    //anything sent past the committed offset before the drop is sent again
+                    transferred.addAndGet(status.getOffset() - sent);
+                    sent = status.getOffset();
+                    long seq = 0;
+                    while(pos < end){
+                        buffer.clear();
+                        buffer.limit((int)Math.min(CHUNK_SIZE, end - pos));
+                        int amt = channel.read(buffer, pos);
+                        if(-1 == amt)
+                            throw new Exception("Unexpected end of local file at " + pos);
+                        buffer.flip();
+                        client.writeAsync(status.getHandle(), seq, codec.compress(buffer), handleAuth);
+                        if(0 == ++seq % FLUSH_INTERVAL){
+                            client.flush(status.getHandle(), handleAuth);
+                            retry.succeeded();
+                        }
+                        pos += amt;
+                        sent += amt;
+                        long total = transferred.addAndGet(amt);
+                        System.out.print("\r"+total+"/"+fsize + " " + ((float)total)/fsize * 100+"%");
+                    }
+                    client.flush(status.getHandle(), handleAuth);
+                    client.finishUpload(session, auth);
+                    return;
+                }catch(Exception e){
+                    if(!retry.shouldRetry(e))
+                        throw e;
+                    client = retry.reconnect(client);
+                }
+            }
+        }finally{
+            client.getInputProtocol().getTransport().close();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
-import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftUploadStatus;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Properties;
@@ -18,12 +21,27 @@ public class Put extends FSBase{
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-no_compress", longForm = "--no_compress")
+    public boolean noCompress;
+
+    @Parameter(shortForm = "-parallel", longForm = "--parallel", description = "number of connections to upload with (optional)")
+    public String parallel;
+
+    @Parameter(shortForm = "-resume", longForm = "--resume", description = "upload session to continue (optional)")
+    public String resume;
+
+    @Parameter(shortForm = "-retries", longForm = "--retries", description = "reconnect attempts after a dropped connection (optional)")
+    public String retries;
+
+    /** pipelined chunks sent between acknowledgements from the data server **/
+    private static final int FLUSH_INTERVAL = 64;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 1 || help){
-            System.out.println("-put <local_file> [destination]");
+            System.out.println("-put [-parallel=<connections>] [-no_compress] [-resume=<session>] [-retries=<n>] <local_file> [destination]");
             return;
         }else{
             File inFile = new File(remainingArgs.get(0));
@@ -39,21 +57,60 @@ public class Put extends FSBase{
             if(0 == dest.compareTo("."))
                 dest = inFile.getName();
 
-            JnomicsThriftHandle handle = client.create(dest, auth);
-            InputStream localStream = new FileInputStream(inFile);
+            if(null != parallel && Integer.parseInt(parallel) > 1){
+                new ParallelUpload(properties, auth, Integer.parseInt(parallel), noCompress, retries)
+                        .upload(inFile, dest, client);
+                return;
+            }
+
+            String session = resume;
+            if(null == session){
+                session = client.startUpload(dest, auth);
+                System.err.println("Upload session: " + session + " (continue an interrupted upload with -resume=" + session + ")");
+            }
 
+            TransferRetries retry = new TransferRetries(properties, retries);
+            RandomAccessFile localFile = new RandomAccessFile(inFile, "r");
             byte[] buffer = new byte[1000000];
-            int amt;
-            long total=0;
             long fsize = inFile.length();
-            while(-1 != (amt = localStream.read(buffer))){
-                total += amt;
-                System.out.print("\r"+total+"/"+fsize + " " + ((float)total)/fsize * 100+"%");
-                client.write(handle, ByteBuffer.wrap(buffer, 0, amt), auth);
+            try{
+                while(true){
+                    try{
+                        //the server says how much it already has, carry on from there
+                        JnomicsThriftUploadStatus status = client.resumeUpload(session,
+                                JnomicsFrameCodec.offeredFor(inFile.getName(), noCompress), auth);
+                        JnomicsFrameCodec codec = JnomicsFrameCodec.forName(status.getHandle().getCodec());
+                        Authentication handleAuth = JnomicsThriftClient.handleAuth(status.getHandle(), auth);
+                        long total = status.getOffset();
+                        localFile.seek(total);
+                        int amt;
+                        long seq = 0;
+                        while(-1 != (amt = localFile.read(buffer))){
+                            //pipelined, the server acks a window of chunks at each flush
+                            client.writeAsync(status.getHandle(), seq, codec.compress(ByteBuffer.wrap(buffer, 0, amt)), handleAuth);
+                            if(0 == ++seq % FLUSH_INTERVAL){
+                                client.flush(status.getHandle(), handleAuth);
+                                retry.succeeded();
+                            }
+                            total += amt;
+                            System.out.print("\r"+total+"/"+fsize + " " + ((float)total)/fsize * 100+"%");
+                        }
+                        client.flush(status.getHandle(), handleAuth);
+                        client.finishUpload(session, auth);
+                        break;
+                    }catch(Exception e){
+                        if(!retry.shouldRetry(e)){
+                            System.err.println("\nUpload failed, continue it with -resume=" + session);
+                            throw e;
+                        }
+                        System.err.println("\nConnection lost (" + e.getMessage() + "), reconnecting");
+                        client = retry.reconnect(client);
+                    }
+                }
+            }finally{
+                localFile.close();
             }
             System.out.println();
-            localStream.close();
-            client.close(handle,auth);
         }
     }
 }
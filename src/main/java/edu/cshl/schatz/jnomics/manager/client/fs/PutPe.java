@@ -1,13 +1,10 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
-import edu.cshl.schatz.jnomics.manager.fs.JnomicsThriftFileSystem;
-import edu.cshl.schatz.jnomics.tools.PairedEndLoader;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
@@ -19,22 +16,26 @@ public class PutPe extends FSBase{
     @Flag(shortForm = "-h",longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-ingest", longForm = "--server_ingest")
+    public boolean ingest;
+
+    @Parameter(shortForm = "-shards", longForm = "--shards", description = "write a directory of n SequenceFiles, each over its own connection (optional)")
+    public String shards;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 3 || help){
-            System.out.println("fs -put_pe <reads.1.fq> <reads.2.fq> <output.pe>");
+            System.out.println("fs -put_pe [-ingest] [-shards=<n>] <reads.1.fq> <reads.2.fq> <output.pe>");
+        }else if(ingest){
+            new ServerIngest(properties, auth).ingest(
+                    Arrays.asList(new File(remainingArgs.get(0)), new File(remainingArgs.get(1))),
+                    remainingArgs.get(2) + ".pe", false, ServerIngest.parseShards(shards), client);
         }else{
-            InputStream infile1 = edu.cshl.schatz.jnomics.util.FileUtil.getInputStreamWrapperFromExtension(
-                    new FileInputStream(remainingArgs.get(0)),
-                    edu.cshl.schatz.jnomics.util.FileUtil.getExtension(remainingArgs.get(0)));
-            InputStream infile2 = edu.cshl.schatz.jnomics.util.FileUtil.getInputStreamWrapperFromExtension(
-                    new FileInputStream(remainingArgs.get(1)),
-                    edu.cshl.schatz.jnomics.util.FileUtil.getExtension(remainingArgs.get(1)));
-
-            FileSystem fs = new JnomicsThriftFileSystem(client,auth);
-            new PairedEndLoader().load(infile1, infile2, new Path(remainingArgs.get(2) + ".pe"), fs);
+            new FastqLoadPipeline(properties, auth, ServerIngest.parseShards(shards)).loadPaired(
+                    new File(remainingArgs.get(0)), new File(remainingArgs.get(1)),
+                    remainingArgs.get(2) + ".pe", client);
         }
 
     }
@@ -1,13 +1,10 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
-import edu.cshl.schatz.jnomics.manager.fs.JnomicsThriftFileSystem;
-import edu.cshl.schatz.jnomics.tools.PairedEndLoader;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
+import edu.cshl.schatz.jnomics.manager.client.ann.Parameter;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
@@ -19,18 +16,24 @@ public class PutPeI extends FSBase{
     @Flag(shortForm = "-h", longForm = "--help")
     public boolean help;
 
+    @Flag(shortForm = "-ingest", longForm = "--server_ingest")
+    public boolean ingest;
+
+    @Parameter(shortForm = "-shards", longForm = "--shards", description = "write a directory of n SequenceFiles, each over its own connection (optional)")
+    public String shards;
+
     @Override
     public void handle(List<String> remainingArgs, Properties properties) throws Exception {
         super.handle(remainingArgs, properties);
 
         if(remainingArgs.size() < 2 || help){
-            System.out.println("fs -put_pe_i <reads.fq> <output.pe>");
+            System.out.println("fs -put_pe_i [-ingest] [-shards=<n>] <reads.fq> <output.pe>");
+        }else if(ingest){
+            new ServerIngest(properties, auth).ingest(Arrays.asList(new File(remainingArgs.get(0))),
+                    remainingArgs.get(1) + ".pe", true, ServerIngest.parseShards(shards), client);
         }else{
-            InputStream infile1 = edu.cshl.schatz.jnomics.util.FileUtil.getInputStreamWrapperFromExtension(
-                    new FileInputStream(remainingArgs.get(0)),
-                    edu.cshl.schatz.jnomics.util.FileUtil.getExtension(remainingArgs.get(0)));
-            FileSystem fs = new JnomicsThriftFileSystem(client,auth);
-            new PairedEndLoader().load(infile1,new Path(remainingArgs.get(1)+".pe"),fs);
+            new FastqLoadPipeline(properties, auth, ServerIngest.parseShards(shards)).loadInterleaved(
+                    new File(remainingArgs.get(0)), remainingArgs.get(1) + ".pe", client);
         }
     }
 }
@@ -1,5 +1,6 @@
 package edu.cshl.schatz.jnomics.manager.client.fs;
 
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
 import edu.cshl.schatz.jnomics.manager.client.ann.Flag;
 
 import java.util.List;
@@ -10,6 +11,9 @@ import java.util.Properties;
  */
 public class Rm extends FSBase{
 
+    /** removes sent before waiting on a reply, bounded so neither side's socket buffer fills up **/
+    private static final int PIPELINE_WINDOW = 64;
+
     @Flag(shortForm = "-h",longForm = "--help")
     public boolean help;
 
@@ -20,9 +24,19 @@ public class Rm extends FSBase{
             System.out.println("-rm <file>");
         }else{
             boolean recurse =  false;
-            boolean status;
-            for(String file : remainingArgs){
-                status = client.remove(file,recurse,auth);
+            //pipelined, removes are sent ahead of their replies so many files cost about one round trip
+            int sent = 0;
+            for(int received = 0; received < remainingArgs.size(); received++){
+                while(sent < remainingArgs.size() && sent - received < PIPELINE_WINDOW){
+                    client.send_remove(remainingArgs.get(sent++),recurse,auth);
+                }
+                String file = remainingArgs.get(received);
+                boolean status;
+                try{
+                    status = client.recv_remove();
+                }catch(JnomicsThriftException e){
+                    status = false;
+                }
                 if(status)
                     System.out.println("Deleted: " + file);
                 else
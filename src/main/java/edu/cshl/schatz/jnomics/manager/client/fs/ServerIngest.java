@@ -0,0 +1,69 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftIngestStatus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Server side ingest for the put_se, put_pe and put_pe_i commands.
+ * The raw fastq files are uploaded as they are, gzipped files stay
+ * gzipped, to a hidden staging directory next to the output. The data
+ * server parses them into SequenceFiles and the staged copies are
+ * removed afterwards.
+ */
+public class ServerIngest {
+
+    private static final long POLL_MS = 5000;
+
+    private final Properties properties;
+    private final Authentication auth;
+
+    public ServerIngest(Properties properties, Authentication auth){
+        this.properties = properties;
+        this.auth = auth;
+    }
+
+    public static int parseShards(String shards){
+        return null == shards ? 1 : Integer.parseInt(shards);
+    }
+
+    public void ingest(List<File> inputs, String output, boolean interleaved, int shards,
+                       JnomicsData.Client client) throws Exception {
+        for(File input : inputs){
+            if(!input.exists())
+                throw new Exception("Can't find file: " + input);
+        }
+        int slash = output.lastIndexOf('/');
+        String staging = output.substring(0, slash + 1) + "." + output.substring(slash + 1) + ".ingest";
+        client.mkdir(staging, auth);
+        try{
+            List<String> staged = new ArrayList<String>();
+            for(int i = 0; i < inputs.size(); i++){
+                File input = inputs.get(i);
+                //keep the name, the server picks the decompressor by extension
+                String dest = staging + "/" + i + "_" + input.getName();
+                System.out.println("Uploading " + input);
+                new ParallelUpload(properties, auth, 1, false, null).upload(input, dest, client);
+                staged.add(dest);
+            }
+
+            String id = client.ingestFastq(staged, output, interleaved, shards, auth);
+            JnomicsThriftIngestStatus status;
+            do{
+                Thread.sleep(POLL_MS);
+                status = client.ingestStatus(id, auth);
+                System.out.print("\rConverted " + status.getReads() + " reads");
+            }while(!status.isComplete());
+            System.out.println();
+            if(null != status.getError())
+                throw new Exception("Ingest into " + output + " failed: " + status.getError());
+        }finally{
+            client.remove(staging, true, auth);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package edu.cshl.schatz.jnomics.manager.client.fs;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import org.apache.thrift.transport.TTransportException;
+
+import java.util.Properties;
+
+/**
+ * Reconnect policy for transfers that can pick up where they left off.
+ * Only dropped connections are retried, errors reported by the data
+ * server are passed on. Waits double after each consecutive failure, up
+ * to 30 seconds, and the count resets once data moves again.
+ */
+public class TransferRetries {
+
+    public static final int DEFAULT_RETRIES = 10;
+
+    private static final long MAX_WAIT = 30000;
+
+    private final Properties properties;
+    private final int maxRetries;
+    private int failures = 0;
+
+    public TransferRetries(Properties properties, int maxRetries){
+        this.properties = properties;
+        this.maxRetries = maxRetries;
+    }
+
+    public TransferRetries(Properties properties, String maxRetries){
+        this(properties, null == maxRetries ? DEFAULT_RETRIES : Integer.parseInt(maxRetries));
+    }
+
+    /** true if e was a dropped connection and there are attempts left **/
+    public boolean shouldRetry(Exception e){
+        return e instanceof TTransportException && ++failures <= maxRetries;
+    }
+
+    /** data got through, start counting failures from scratch **/
+    public void succeeded(){
+        failures = 0;
+    }
+
+    /**
+     * Drop the old connection and open a new one once the server is reachable
+     */
+    public JnomicsData.Client reconnect(JnomicsData.Client old) throws Exception {
+        try{
+            old.getInputProtocol().getTransport().close();
+        }catch(Exception ignore){
+        }
+        while(true){
+            Thread.sleep(Math.min(MAX_WAIT, 1000L << Math.min(failures, 5)));
+            try{
+                return JnomicsThriftClient.getFsClient(properties);
+            }catch(TTransportException e){
+                if(!shouldRetry(e))
+                    throw e;
+            }
+        }
+    }
+}
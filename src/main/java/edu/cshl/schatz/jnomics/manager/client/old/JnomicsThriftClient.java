@@ -3,9 +3,13 @@ package edu.cshl.schatz.jnomics.manager.client.old;
 import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsCompute;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
 import edu.cshl.schatz.jnomics.manager.common.JnomicsApiConfig;
+import org.apache.thrift.TServiceClient;
 import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMultiplexedProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.*;
 
@@ -21,6 +25,10 @@ import java.util.Properties;
  */
 public class JnomicsThriftClient {
 
+    /** service names registered with the multiplexed server **/
+    public static final String DATA_SERVICE = "JnomicsData";
+    public static final String COMPUTE_SERVICE = "JnomicsCompute";
+
     public static Authentication getAuthentication(Properties properties) throws Exception {
         String username = properties.getProperty("username");
         String password = properties.getProperty("password");
@@ -28,9 +36,29 @@ public class JnomicsThriftClient {
         return new Authentication(username,password,token);
     }
     
-    public static JnomicsData.Client getFsClient(Properties properties) throws Exception, TTransportException {
-        String thriftDataHost = properties.getProperty("data-server-host");
-        int thriftDataPort = Integer.parseInt(properties.getProperty("data-server-port"));
+    /**
+     * Authentication to send with calls on an open handle, none when the
+     * server bound the handle to a session
+     */
+    public static Authentication handleAuth(JnomicsThriftHandle handle, Authentication auth){
+        return handle.isSetSession() ? null : auth;
+    }
+
+    /**
+     * Both services reachable through one multiplexed server
+     */
+    public static boolean isMultiplexed(Properties properties){
+        return null != properties.getProperty("multiplex-server-host");
+    }
+
+    /**
+     * A connection to the server of a service, or to the
+     * multiplexed server when one is configured
+     */
+    private static TTransport connect(Properties properties, String service) throws Exception {
+        String prefix = isMultiplexed(properties) ? "multiplex" : service;
+        String host = properties.getProperty(prefix + "-server-host");
+        int port = Integer.parseInt(properties.getProperty(prefix + "-server-port"));
         String trustStore = System.getProperty("jkclient_truststore");
         if(null == trustStore || !new File(trustStore).exists()){
             throw new Exception("Cannot find trust store: "+ trustStore);
@@ -39,31 +67,46 @@ public class JnomicsThriftClient {
         TSSLTransportFactory.TSSLTransportParameters params =
                 new TSSLTransportFactory.TSSLTransportParameters();
         params.setTrustStore(trustStore,"kbasekeystore");
-        TTransport transport = TSSLTransportFactory.getClientSocket(thriftDataHost,thriftDataPort,10000,params);
-
-        TProtocol protocol = new TBinaryProtocol(transport);
-        JnomicsData.Client client = new JnomicsData.Client(protocol);
+        TTransport transport = TSSLTransportFactory.getClientSocket(host,port,10000,params);
+        //servers in selector mode only speak framed thrift
+        if(Boolean.parseBoolean(properties.getProperty(prefix + "-server-framed","false")))
+            transport = new TFramedTransport(transport);
+        return transport;
+    }
 
-        return client;
+    /**
+     * binary (default) or compact, servers detect which one a client speaks
+     */
+    private static String protocolName(Properties properties, String service){
+        String prefix = isMultiplexed(properties) ? "multiplex" : service;
+        return properties.getProperty(prefix + "-server-protocol", "binary");
     }
 
-    public static JnomicsCompute.Client getComputeClient(Properties properties) throws Exception, TTransportException{
-        String thriftComputeHost = properties.getProperty("compute-server-host");
-        int thriftComputePort = Integer.parseInt(properties.getProperty("compute-server-port"));
-        String trustStore = System.getProperty("jkclient_truststore");
-        if(null == trustStore || !new File(trustStore).exists()){
-            throw new Exception("Cannot find trust store: "+ trustStore);
-        }
+    private static TProtocol getProtocol(Properties properties, TTransport transport, String service){
+        TProtocol protocol = "compact".equals(protocolName(properties, service)) ?
+                new TCompactProtocol(transport) : new TBinaryProtocol(transport);
+        if(isMultiplexed(properties))
+            protocol = new TMultiplexedProtocol(protocol, "data".equals(service) ? DATA_SERVICE : COMPUTE_SERVICE);
+        return protocol;
+    }
 
-        TSSLTransportFactory.TSSLTransportParameters params =
-                new TSSLTransportFactory.TSSLTransportParameters();
-        params.setTrustStore(trustStore,"kbasekeystore");
-        TTransport thriftTransport = TSSLTransportFactory.getClientSocket(thriftComputeHost,thriftComputePort,10000,params);
+    public static JnomicsData.Client getFsClient(Properties properties) throws Exception, TTransportException {
+        return new JnomicsData.Client(getProtocol(properties, connect(properties, "data"), "data"));
+    }
 
-        TProtocol protocol = new TBinaryProtocol(thriftTransport);
-        JnomicsCompute.Client client = new JnomicsCompute.Client(protocol);
+    /**
+     * A data client on the same connection as another client when the
+     * services are multiplexed, otherwise on its own connection. Calls on the
+     * two clients must not overlap and only one of them should be closed.
+     */
+    public static JnomicsData.Client getFsClient(Properties properties, TServiceClient shared) throws Exception {
+        if(!isMultiplexed(properties))
+            return getFsClient(properties);
+        return new JnomicsData.Client(getProtocol(properties, shared.getInputProtocol().getTransport(), "data"));
+    }
 
-        return client;
+    public static JnomicsCompute.Client getComputeClient(Properties properties) throws Exception, TTransportException{
+        return new JnomicsCompute.Client(getProtocol(properties, connect(properties, "compute"), "compute"));
     }
     
 
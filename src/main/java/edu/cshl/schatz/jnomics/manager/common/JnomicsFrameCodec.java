@@ -0,0 +1,201 @@
+package edu.cshl.schatz.jnomics.manager.common;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wire compression for data transferred through JnomicsData handles.
+ *
+ * Each write/read payload on a handle is one self contained frame in the
+ * handle's codec. The client offers the codecs it can use when creating or
+ * opening a handle and the data server picks the first one it supports.
+ */
+public enum JnomicsFrameCodec {
+
+    NONE("none") {
+        @Override
+        public ByteBuffer compress(ByteBuffer data) {
+            return data;
+        }
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer data) {
+            return data;
+        }
+    },
+
+    SNAPPY("snappy") {
+        @Override
+        public ByteBuffer compress(ByteBuffer data) throws IOException {
+            byte[] out = new byte[Snappy.maxCompressedLength(data.remaining())];
+            int len = Snappy.compress(data.array(), data.arrayOffset() + data.position(), data.remaining(), out, 0);
+            return ByteBuffer.wrap(out, 0, len);
+        }
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer data) throws IOException {
+            if(0 == data.remaining())
+                return data;
+            int off = data.arrayOffset() + data.position();
+            byte[] out = new byte[checkFrameSize(Snappy.uncompressedLength(data.array(), off, data.remaining()))];
+            int len = Snappy.uncompress(data.array(), off, data.remaining(), out, 0);
+            return ByteBuffer.wrap(out, 0, len);
+        }
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer data, byte[] into) throws IOException {
+            if(0 == data.remaining())
+                return data;
+            int off = data.arrayOffset() + data.position();
+            if(checkFrameSize(Snappy.uncompressedLength(data.array(), off, data.remaining())) > into.length)
+                return decompress(data);
+            int len = Snappy.uncompress(data.array(), off, data.remaining(), into, 0);
+            return ByteBuffer.wrap(into, 0, len);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            try{
+                Snappy.maxCompressedLength(1);
+                return true;
+            }catch(Throwable t){
+                //native library could not be loaded on this platform
+                return false;
+            }
+        }
+    },
+
+    GZIP("gzip") {
+        @Override
+        public ByteBuffer compress(ByteBuffer data) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.remaining() / 3 + 64);
+            GZIPOutputStream gz = new GZIPOutputStream(bytes);
+            gz.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            gz.close();
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer data) throws IOException {
+            if(0 == data.remaining())
+                return data;
+            GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(data.array(),
+                    data.arrayOffset() + data.position(), data.remaining()));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    (int)Math.min(MAX_FRAME_SIZE, data.remaining() * 4L));
+            byte[] buf = new byte[65536];
+            int amt;
+            while(-1 != (amt = gz.read(buf))){
+                //stop a small frame from inflating without bound
+                checkFrameSize(bytes.size() + amt);
+                bytes.write(buf, 0, amt);
+            }
+            gz.close();
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+    };
+
+    /**
+     * Largest decoded frame accepted, the size of the data server's
+     * transfer buffers. Every client sends and asks for less
+     */
+    public static final int MAX_FRAME_SIZE = 2000000;
+
+    /** extensions of files that are already compressed and gain nothing on the wire **/
+    private static final String[] COMPRESSED_EXTENSIONS = {".gz", ".bz2", ".zip", ".bam", ".snappy", ".xz"};
+
+    private final String name;
+
+    JnomicsFrameCodec(String name){
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public abstract ByteBuffer compress(ByteBuffer data) throws IOException;
+
+    public abstract ByteBuffer decompress(ByteBuffer data) throws IOException;
+
+    /**
+     * Decompress into a buffer the caller owns when the codec can and the
+     * frame fits, the result may be into, data itself or a new array
+     */
+    public ByteBuffer decompress(ByteBuffer data, byte[] into) throws IOException {
+        return decompress(data);
+    }
+
+    public boolean isAvailable() {
+        return true;
+    }
+
+    private static int checkFrameSize(int size) throws IOException {
+        if(size < 0 || size > MAX_FRAME_SIZE)
+            throw new IOException("Frame decodes to " + size + " bytes, more than " + MAX_FRAME_SIZE);
+        return size;
+    }
+
+    /**
+     * @return the codec called name, NONE for null or an empty name
+     * @throws IOException for an unknown codec
+     */
+    public static JnomicsFrameCodec forName(String name) throws IOException {
+        if(null == name || name.isEmpty())
+            return NONE;
+        for(JnomicsFrameCodec codec : values()){
+            if(codec.name.equals(name))
+                return codec;
+        }
+        throw new IOException("Unknown transfer codec: " + name);
+    }
+
+    /**
+     * Pick the first offered codec that is available here
+     */
+    public static JnomicsFrameCodec negotiate(List<String> offered){
+        if(null != offered){
+            for(String name : offered){
+                for(JnomicsFrameCodec codec : values()){
+                    if(codec.name.equals(name) && codec.isAvailable())
+                        return codec;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Codecs to offer for transferring file, in order of preference.
+     * Already compressed files are sent as is
+     */
+    public static List<String> offeredFor(String file, boolean disabled){
+        if(disabled || isCompressedFile(file))
+            return Collections.singletonList(NONE.name);
+        List<String> offered = new ArrayList<String>();
+        for(JnomicsFrameCodec codec : new JnomicsFrameCodec[]{SNAPPY, GZIP}){
+            if(codec.isAvailable())
+                offered.add(codec.name);
+        }
+        offered.add(NONE.name);
+        return offered;
+    }
+
+    public static boolean isCompressedFile(String file){
+        String lower = file.toLowerCase();
+        for(String ext : COMPRESSED_EXTENSIONS){
+            if(lower.endsWith(ext))
+                return true;
+        }
+        return false;
+    }
+}
@@ -4,17 +4,30 @@ import edu.cshl.schatz.jnomics.manager.api.Authentication;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsData;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftFileStatus;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftPathStatus;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.util.Progressable;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * User: james
@@ -28,16 +41,74 @@ public class JnomicsThriftFileSystem extends FileSystem {
 
     private Configuration conf = new Configuration();
 
-    /** Writing to Stream Hacked**/
-    private class JnomicsThriftOutputStream extends OutputStream {
+    /**
+     * Writing to Stream Hacked. Full buffers go onto a small ring that a
+     * sender thread drains to the data server, so the thread serializing
+     * records never waits on the network. Buffers are handed back once
+     * sent, a full ring blocks the writer.
+     **/
+    private class JnomicsThriftOutputStream extends OutputStream implements Runnable {
 
         private JnomicsThriftHandle handle;
+        private final String path;
+        private JnomicsFrameCodec codec;
+        private Authentication handleAuth;
+        private long seq = 0;
         int BUFSIZE= 2000000;
+        int RING = 4;
         int current = 0;
-        byte[] writeBuffer = new byte[BUFSIZE];
+        byte[] writeBuffer;
 
-        public JnomicsThriftOutputStream(JnomicsThriftHandle handle){
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(RING);
+        private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(RING);
+        private final ByteBuffer END = ByteBuffer.allocate(0);
+        private final Thread sender;
+        private volatile IOException error = null;
+        private boolean closed = false;
+
+        public JnomicsThriftOutputStream(JnomicsThriftHandle handle, String path) throws IOException {
             this.handle = handle;
+            this.path = path;
+            this.codec = JnomicsFrameCodec.forName(handle.getCodec());
+            //handles bound to a session need no token on every chunk
+            this.handleAuth = handle.isSetSession() ? null : auth;
+            for(int i = 0; i < RING - 1; i++){
+                free.add(new byte[BUFSIZE]);
+            }
+            writeBuffer = new byte[BUFSIZE];
+            sender = new Thread(this, "jnomics-sender-" + handle.getUuid());
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        @Override
+        public void run() {
+            while(true){
+                ByteBuffer buf;
+                try{
+                    buf = full.take();
+                }catch(InterruptedException e){
+                    return;
+                }
+                if(END == buf)
+                    return;
+                try{
+                    if(null == error){
+                        synchronized (client){
+                            client.writeAsync(handle,seq++,codec.compress(buf),handleAuth);
+                        }
+                    }
+                }catch(Exception e){
+                    error = new IOException(e);
+                }finally{
+                    free.add(buf.array());
+                }
+            }
+        }
+
+        private void checkError() throws IOException {
+            if(null != error)
+                throw error;
         }
 
         @Override
@@ -46,12 +117,15 @@ public class JnomicsThriftFileSystem extends FileSystem {
         }
 
         public void writeBuff() throws IOException{
+            checkError();
             if(current < 1)
                 return;
             try{
-                client.write(handle,ByteBuffer.wrap(writeBuffer,0,current),auth);
-            } catch(Exception e){
-                throw new IOException(e);
+                full.put(ByteBuffer.wrap(writeBuffer,0,current));
+                writeBuffer = free.take();
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for the sender");
             }
             current = 0;
         }
@@ -65,18 +139,14 @@ public class JnomicsThriftFileSystem extends FileSystem {
 
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            if(len >= BUFSIZE){
-                writeBuff();
-                try{
-                    client.write(handle,ByteBuffer.wrap(b,off,len),auth);
-                }catch(Exception e){
-                    throw new IOException(e);
-                }
-            }else{
-                if(current + len > BUFSIZE)
+            while(len > 0){
+                if(current >= BUFSIZE)
                     writeBuff();
-                System.arraycopy(b,off,writeBuffer,current,len);
-                current += len;
+                int n = Math.min(len, BUFSIZE - current);
+                System.arraycopy(b,off,writeBuffer,current,n);
+                current += n;
+                off += n;
+                len -= n;
             }
         }
 
@@ -85,59 +155,245 @@ public class JnomicsThriftFileSystem extends FileSystem {
             write(b,0,b.length);
         }
 
+        /** pipelined writes are only confirmed here, close reports any that failed **/
         @Override
         public void close() throws IOException {
-            writeBuff();
-            try {
-                client.close(handle,auth);
-            } catch (Exception e) {
-                throw new IOException(e);
+            if(closed)
+                return;
+            closed = true;
+            boolean written = false;
+            try{
+                try{
+                    writeBuff();
+                }finally{
+                    try{
+                        full.put(END);
+                        sender.join();
+                    }catch(InterruptedException e){
+                        sender.interrupt();
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                checkError();
+                written = true;
+            }finally{
+                //release the handle even when a write failed, the write error is the one reported
+                try {
+                    synchronized (client){
+                        client.close(handle,handleAuth);
+                    }
+                } catch (Exception e) {
+                    if(written)
+                        throw new IOException(e);
+                } finally {
+                    //a status looked up while writing has a stale length now
+                    statusCache.remove(path);
+                }
             }
         }
     }
 
-    /** Probably does not work **/
-    private class JnomicsThriftInputStream extends InputStream {
-
-        public JnomicsThriftHandle handle;
-
-        public JnomicsThriftInputStream(JnomicsThriftHandle handle){
+    /**
+     * Buffered, seekable reads over readAt. The stream keeps the block
+     * holding the current position and has the next block fetched in the
+     * background while the current one is consumed, so sequential readers
+     * such as SequenceFile.Reader rarely wait on the network. A seek
+     * outside both blocks throws them away. Positioned reads go straight
+     * to readAt and leave the buffers alone.
+     **/
+    private class JnomicsThriftInputStream extends FSInputStream {
+
+        private final JnomicsThriftHandle handle;
+        private final JnomicsFrameCodec codec;
+        private final Authentication handleAuth;
+        private final long length;
+
+        private long pos = 0;
+        private byte[] buf = new byte[0];
+        private long bufStart = 0;
+        private Future<byte[]> ahead = null;
+        private long aheadStart = -1;
+        private volatile boolean closed = false;
+
+        public JnomicsThriftInputStream(JnomicsThriftHandle handle, long length) throws IOException {
             this.handle = handle;
+            this.codec = JnomicsFrameCodec.forName(handle.getCodec());
+            //handles bound to a session need no token on every chunk
+            this.handleAuth = handle.isSetSession() ? null : auth;
+            this.length = length;
         }
-        
-        @Override
-        public int read() throws IOException {
-            ByteBuffer buffer;
-            try {
-                buffer = client.read(handle,auth);
-            } catch (Exception e){
+
+        private byte[] fetch(long offset, int len) throws IOException {
+            ByteBuffer data;
+            try{
+                synchronized (client){
+                    data = client.readAt(handle, offset, len, handleAuth);
+                }
+            }catch(Exception e){
                 throw new IOException(e);
             }
-            return buffer.array().length;
+            data = codec.decompress(data);
+            byte[] block = new byte[data.remaining()];
+            data.get(block);
+            return block;
         }
 
-        @Override
-        public int read(byte[] b) throws IOException {
-            ByteBuffer buffer;
-            try{
-                buffer = client.read(handle,auth);
-            } catch (Exception e){
-                throw new IOException(e);
+        private void readAhead(){
+            final long start = bufStart + buf.length;
+            if(start >= length || start == aheadStart)
+                return;
+            aheadStart = start;
+            ahead = readAheadPool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    if(closed)
+                        return new byte[0];
+                    return fetch(start, READ_BLOCK);
+                }
+            });
+        }
+
+        private void dropAhead(){
+            if(null != ahead)
+                ahead.cancel(false);
+            ahead = null;
+            aheadStart = -1;
+        }
+
+        /** make the block holding pos current, false at end of file **/
+        private boolean fill() throws IOException {
+            if(closed)
+                throw new IOException("Stream closed");
+            if(pos >= bufStart && pos < bufStart + buf.length)
+                return true;
+            if(pos >= length)
+                return false;
+            byte[] block = null;
+            if(null != ahead && pos >= aheadStart){
+                try{
+                    block = ahead.get();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for read ahead");
+                }catch(ExecutionException e){
+                    if(e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+                bufStart = aheadStart;
+                ahead = null;
+                aheadStart = -1;
+                if(pos >= bufStart + block.length)
+                    block = null;
+            }
+            if(null == block){
+                dropAhead();
+                bufStart = pos;
+                block = fetch(pos, READ_BLOCK);
             }
-            b = buffer.array();
-            return b.length;
+            buf = block;
+            if(0 == buf.length)
+                return false;
+            readAhead();
+            return true;
         }
 
         @Override
-        public void close() throws IOException {
+        public synchronized int read() throws IOException {
+            if(!fill())
+                return -1;
+            return buf[(int)(pos++ - bufStart)] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if(0 == len)
+                return 0;
+            if(!fill())
+                return -1;
+            int n = (int)Math.min(len, bufStart + buf.length - pos);
+            System.arraycopy(buf, (int)(pos - bufStart), b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int read(long position, byte[] b, int off, int len) throws IOException {
+            if(position >= length)
+                return -1;
+            byte[] block = fetch(position, (int)Math.min(len, READ_BLOCK));
+            if(0 == block.length)
+                return -1;
+            System.arraycopy(block, 0, b, off, block.length);
+            return block.length;
+        }
+
+        @Override
+        public synchronized void seek(long l) throws IOException {
+            if(l < 0 || l > length)
+                throw new IOException("Cannot seek to " + l + ", file length is " + length);
+            pos = l;
+        }
+
+        @Override
+        public synchronized long getPos() throws IOException {
+            return pos;
+        }
+
+        @Override
+        public boolean seekToNewSource(long l) throws IOException {
+            return false;
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            long left = bufStart + buf.length - pos;
+            return left > 0 ? (int)left : 0;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if(closed)
+                return;
+            closed = true;
+            dropAhead();
             try{
-                client.close(handle,auth);
+                synchronized (client){
+                    client.close(handle,handleAuth);
+                }
             }catch(Exception e){
                 throw new IOException(e);
             }
         }
     }
 
+    /** largest range asked of readAt, under the data server's 2MB read buffer **/
+    private static final int READ_BLOCK = 1 << 20;
+
+    private static final ExecutorService readAheadPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "jnomics-read-ahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** how long file status is trusted before asking the data server again **/
+    public static final String METADATA_TTL = "jnomics.thrift.fs.metadata.ttl.ms";
+
+    private static class CachedStatus {
+        final FileStatus status;
+        final long expires;
+
+        CachedStatus(FileStatus status, long expires){
+            this.status = status;
+            this.expires = expires;
+        }
+    }
+
+    private final ConcurrentMap<String, CachedStatus> statusCache = new ConcurrentHashMap<String, CachedStatus>();
+
     @Override
     public void setConf(Configuration conf) {
         this.conf = conf;
@@ -159,28 +415,35 @@ public class JnomicsThriftFileSystem extends FileSystem {
         return URI.create("jtfs://");
     }
 
-    /**Most Likely does not work properly**/
     @Override
     public FSDataInputStream open(Path path, int i) throws IOException {
+        //the stream stops at this length, a cached one may predate the last write
+        statusCache.remove(path.toString());
+        long length = getFileStatus(path).getLen();
         JnomicsThriftHandle handle;
         try {
-            handle = client.open(path.toString(),auth);
+            synchronized (client){
+                handle = client.openCompressed(path.toString(), JnomicsFrameCodec.offeredFor(path.getName(), false), auth);
+            }
         } catch (Exception e){
             throw new IOException(e);
         }
-        return new FSDataInputStream(new JnomicsThriftInputStream(handle));
+        return new FSDataInputStream(new JnomicsThriftInputStream(handle, length));
     }
 
     @Override
     public FSDataOutputStream create(Path path, FsPermission fsPermission, boolean b, 
                                      int i, short s, long l, Progressable progressable) throws IOException {
         JnomicsThriftHandle h;
+        statusCache.clear();
         try {
-            h = client.create(path.toString(),auth);
+            synchronized (client){
+                h = client.createCompressed(path.toString(), JnomicsFrameCodec.offeredFor(path.getName(), false), auth);
+            }
         } catch (Exception e){
             throw new IOException(e);
         }
-        return new FSDataOutputStream(new JnomicsThriftOutputStream(h));
+        return new FSDataOutputStream(new JnomicsThriftOutputStream(h, path.toString()));
     }
 
     @Override
@@ -191,8 +454,14 @@ public class JnomicsThriftFileSystem extends FileSystem {
 
     @Override
     public boolean rename(Path path, Path path1) throws IOException {
-        System.err.println("WARNING rename not implemented on JnomicsThriftFileSystem");
-        throw new IOException("rename not implemented");
+        statusCache.clear();
+        try {
+            synchronized (client){
+                return client.mv(path.toString(), path1.toString(), auth);
+            }
+        } catch (Exception e){
+            throw new IOException(e);
+        }
     }
 
     @Override
@@ -203,8 +472,11 @@ public class JnomicsThriftFileSystem extends FileSystem {
     @Override
     public boolean delete(Path path, boolean b) throws IOException {
         boolean stat = false;
+        statusCache.clear();
         try {
-            stat = client.remove(path.toString(),b,auth);
+            synchronized (client){
+                stat = client.remove(path.toString(),b,auth);
+            }
         } catch (Exception e){
             throw new IOException(e);
         }
@@ -215,7 +487,9 @@ public class JnomicsThriftFileSystem extends FileSystem {
     public FileStatus[] listStatus(Path path) throws IOException {
         List<JnomicsThriftFileStatus> statuses;
         try {
-            statuses = client.listStatus(path.toString(), auth);
+            synchronized (client){
+                statuses = client.listStatus(path.toString(), auth);
+            }
         } catch (Exception e){
             throw new IOException(e);
         }
@@ -223,7 +497,7 @@ public class JnomicsThriftFileSystem extends FileSystem {
         FileStatus[] statArr = new FileStatus[statuses.size()];
         int i=0;
         for(JnomicsThriftFileStatus s: statuses){
-            statArr[i++] = new FileStatus(s.length,s.isDir,s.replication,s.block_size,s.mod_time,new Path(s.path));
+            statArr[i++] = toFileStatus(s);
         }
         return statArr;
     }
@@ -241,8 +515,11 @@ public class JnomicsThriftFileSystem extends FileSystem {
     @Override
     public boolean mkdirs(Path path, FsPermission fsPermission) throws IOException {
         boolean b;
+        statusCache.clear();
         try {
-            b = client.mkdir(path.toString(),auth);
+            synchronized (client){
+                b = client.mkdir(path.toString(),auth);
+            }
         } catch (Exception e) {
             throw new IOException(e);
         }
@@ -251,9 +528,29 @@ public class JnomicsThriftFileSystem extends FileSystem {
 
     @Override
     public FileStatus getFileStatus(Path path) throws IOException {
-        FileStatus[] stats = listStatus(path);
-        if(stats.length != 1)
-            return null;
-        return stats[0];
+        String key = path.toString();
+        long now = System.currentTimeMillis();
+        CachedStatus cached = statusCache.get(key);
+        if(null == cached || cached.expires < now){
+            JnomicsThriftPathStatus stat;
+            try {
+                synchronized (client){
+                    stat = client.statPaths(Collections.singletonList(key), auth).get(0);
+                }
+            } catch (Exception e){
+                throw new IOException(e);
+            }
+            //missing files are cached too, a reader probing for them asks once per ttl
+            cached = new CachedStatus(stat.isExists() ? toFileStatus(stat.getStatus()) : null,
+                    now + conf.getLong(METADATA_TTL, 2000));
+            statusCache.put(key, cached);
+        }
+        if(null == cached.status)
+            throw new FileNotFoundException("File does not exist: " + path);
+        return cached.status;
+    }
+
+    private static FileStatus toFileStatus(JnomicsThriftFileStatus s){
+        return new FileStatus(s.length,s.isDir,s.replication,s.block_size,s.mod_time,new Path(s.path));
     }
 }
@@ -0,0 +1,174 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writer thread behind a handle's pipelined writes (writeAsync).
+ *
+ * The connection thread only queues each chunk, this thread drains the
+ * bounded queue into the handle's hdfs stream, so receiving the next chunk
+ * overlaps writing the last one. A full queue blocks the connection thread,
+ * which pushes back on the client through tcp. writeAsync is oneway, so the
+ * first failure is kept and reported by the next flush or close; chunks
+ * arriving after it are dropped.
+ */
+public class JnomicsAsyncWriter implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsAsyncWriter.class);
+
+    private static class Chunk {
+        final long seq;
+        final ByteBuffer data;
+
+        Chunk(long seq, ByteBuffer data){
+            this.seq = seq;
+            this.data = data;
+        }
+    }
+
+    private static final Chunk END = new Chunk(-1, null);
+
+    private final JnomicsFsHandle handle;
+    private final JnomicsBufferPool buffers;
+    private final BlockingQueue<Chunk> queue;
+    private final Thread thread;
+
+    private final AtomicLong nextSeq = new AtomicLong(0);
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final Object idle = new Object();
+    private volatile long written = -1;
+    private volatile IOException error = null;
+    private volatile boolean finished = false;
+
+    public JnomicsAsyncWriter(JnomicsFsHandle handle, int capacity, JnomicsBufferPool buffers, String name){
+        this.handle = handle;
+        this.buffers = buffers;
+        this.queue = new ArrayBlockingQueue<Chunk>(capacity);
+        thread = new Thread(this, "jnomics-writer-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a chunk, waiting for room when the writer is behind
+     */
+    public void enqueue(long seq, ByteBuffer data) throws InterruptedException {
+        if(null != error || finished)
+            return;
+        if(!nextSeq.compareAndSet(seq, seq + 1)){
+            fail(new IOException("Out of order write: expected sequence " + nextSeq.get() + " got " + seq));
+            return;
+        }
+        Chunk chunk = new Chunk(seq, data);
+        pending.incrementAndGet();
+        //give up on the chunk if the writer is shut down while we wait
+        while(!queue.offer(chunk, 1, TimeUnit.SECONDS)){
+            if(finished){
+                done();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait until every queued chunk is in the stream
+     * @return sequence number of the last chunk written, -1 for none
+     * @throws IOException the first write failure
+     */
+    public long drain() throws IOException, InterruptedException {
+        synchronized (idle){
+            while(pending.get() > 0 && null == error)
+                idle.wait();
+        }
+        if(null != error)
+            throw error;
+        return written;
+    }
+
+    /**
+     * Write out what is queued and stop the thread
+     * @throws IOException the first write failure
+     */
+    public void finish() throws IOException {
+        try{
+            if(thread.isAlive()){
+                queue.put(END);
+                thread.join();
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for writes to finish");
+        }finally{
+            finished = true;
+            queue.clear();
+        }
+        if(null != error)
+            throw error;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    public void run() {
+        while(true){
+            Chunk chunk;
+            try{
+                chunk = queue.take();
+            }catch(InterruptedException e){
+                return;
+            }
+            if(END == chunk)
+                return;
+            try{
+                if(null == error){
+                    synchronized (handle){
+                        JnomicsFrameCodec codec = handle.getCodec();
+                        byte[] scratch = JnomicsFrameCodec.NONE == codec ? null : buffers.take();
+                        try{
+                            ByteBuffer plain = null == scratch ? chunk.data : codec.decompress(chunk.data, scratch);
+                            handle.getOutStream().write(plain.array(), plain.arrayOffset() + plain.position(),
+                                    plain.remaining());
+                        }finally{
+                            if(null != scratch)
+                                buffers.release(scratch);
+                        }
+                    }
+                    written = chunk.seq;
+                }
+            }catch(IOException e){
+                log.error("Problem writing chunk " + chunk.seq + ": " + e.toString());
+                fail(e);
+            }finally{
+                done();
+            }
+        }
+    }
+
+    private void fail(IOException e){
+        if(null == error)
+            error = e;
+        synchronized (idle){
+            idle.notifyAll();
+        }
+    }
+
+    private void done(){
+        if(0 == pending.decrementAndGet()){
+            synchronized (idle){
+                idle.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfer buffers of the data server, shared by reads and writes.
+ *
+ * Buffers are handed out per request and come back when it is done, so
+ * the memory held stays under data-buffer-pool-mb however many worker
+ * threads the server runs. Once the budget is in use a request waits for
+ * a buffer to come back, up to data-buffer-wait-ms.
+ *
+ * A buffer returned to thrift as a read result is still in use until the
+ * reply is written out. Those are taken with lease() and given back by
+ * releaseLeased() once the processor is done with the call, see
+ * JnomicsDataServer.JnomicsDataProcessorHax.
+ */
+public class JnomicsBufferPool {
+
+    public static final int BUFFER_SIZE = JnomicsFrameCodec.MAX_FRAME_SIZE;
+
+    private static final long DEFAULT_POOL_MB = 256;
+    private static final long DEFAULT_WAIT_MS = 30000;
+
+    private static class Lease {
+        final JnomicsBufferPool pool;
+        final byte[] buffer;
+
+        Lease(JnomicsBufferPool pool, byte[] buffer){
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+    }
+
+    /** buffers leased by the call running on this thread **/
+    private static final ThreadLocal<List<Lease>> leased = new ThreadLocal<List<Lease>>(){
+        @Override
+        protected List<Lease> initialValue() {
+            return new ArrayList<Lease>(1);
+        }
+    };
+
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+    private final Semaphore available;
+    private final long waitMs;
+
+    public JnomicsBufferPool(Properties properties){
+        long budget = Long.parseLong(properties.getProperty("data-buffer-pool-mb",
+                Long.toString(DEFAULT_POOL_MB))) << 20;
+        available = new Semaphore((int)Math.max(1, budget / BUFFER_SIZE));
+        waitMs = Long.parseLong(properties.getProperty("data-buffer-wait-ms", Long.toString(DEFAULT_WAIT_MS)));
+    }
+
+    /**
+     * A buffer of BUFFER_SIZE bytes, to be given back with release()
+     * @throws IOException if none came free in time
+     */
+    public byte[] take() throws IOException {
+        try{
+            if(!available.tryAcquire(waitMs, TimeUnit.MILLISECONDS))
+                throw new IOException("Data server busy, no transfer buffer free after " + waitMs + "ms");
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a transfer buffer");
+        }
+        byte[] buf = free.poll();
+        return null == buf ? new byte[BUFFER_SIZE] : buf;
+    }
+
+    public void release(byte[] buf){
+        free.offer(buf);
+        available.release();
+    }
+
+    /**
+     * A buffer that stays taken until the current call's reply is written
+     */
+    public byte[] lease() throws IOException {
+        byte[] buf = take();
+        leased.get().add(new Lease(this, buf));
+        return buf;
+    }
+
+    /**
+     * Give back the buffers leased by the call that just finished on this thread
+     */
+    public static void releaseLeased(){
+        List<Lease> leases = leased.get();
+        if(leases.isEmpty())
+            return;
+        for(Lease lease : leases)
+            lease.pool.release(lease.buffer);
+        leases.clear();
+    }
+
+    public int getAvailable(){
+        return available.availablePermits();
+    }
+}
@@ -64,25 +64,22 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 
 	private JnomicsServiceAuthentication authenticator;
 
+	private final JnomicsHadoopConfiguration hadoopConf;
+
+	private final JnomicsJobStatusIndex jobIndex;
+
 
 	public JnomicsComputeHandler(Properties systemProperties){
 		properties = systemProperties;
 		authenticator = new JnomicsServiceAuthentication();
+		hadoopConf = new JnomicsHadoopConfiguration(systemProperties);
+		jobIndex = new JnomicsJobStatusIndex(systemProperties, hadoopConf);
+		jobIndex.start();
 	}
 
 	private Configuration getGenericConf(){
-		Configuration conf = new Configuration();
-
-		//if you don't give Path's it will not load the files
-		conf.addResource(new Path(properties.getProperty("core-site-xml")));
-		conf.addResource(new Path(properties.getProperty("mapred-site-xml")));
-		conf.addResource(new Path(properties.getProperty("hdfs-site-xml")));
-		conf.set("fs.default.name", properties.getProperty("hdfs-default-name"));
-		conf.set("mapred.jar", properties.getProperty("jnomics-jar-path"));
-		conf.set("grid-script-path", properties.getProperty("grid-script-path"));
-		conf.set("grid-job-slots", properties.getProperty("grid-job-slots"));
 		//	conf.set("shock-url", properties.getProperty("shock-url"));
-		return conf;
+		return hadoopConf.get();
 	}
 
 
@@ -748,8 +745,12 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		}
 		logger.info("Getting job status for user "+ username);
 
+		JnomicsThriftJobStatus indexed = jobIndex.getJob(jobID.getJob_id());
+		if(null != indexed && username.equals(indexed.getUsername()))
+			return indexed;
+
 		return new JobClientRunner<JnomicsThriftJobStatus>(username,
-				new Configuration(),properties){
+				getGenericConf(),properties){
 			@Override
 			public JnomicsThriftJobStatus jobClientTask() throws Exception {
 
@@ -791,7 +792,11 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		}
 		logger.info("Getting all job status for user "+ username);
 
-		JobStatus[] statuses = new JobClientRunner<JobStatus[]>(username,new Configuration(),properties){
+		List<JnomicsThriftJobStatus> indexed = jobIndex.getJobs(username);
+		if(null != indexed)
+			return indexed;
+
+		JobStatus[] statuses = new JobClientRunner<JobStatus[]>(username,getGenericConf(),properties){
 			@Override
 			public JobStatus[] jobClientTask() throws Exception {
 				logger.info("getting jobs");
@@ -802,15 +807,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		List<JnomicsThriftJobStatus> newStats = new ArrayList<JnomicsThriftJobStatus>();
 		for(JobStatus stat: statuses){
 			if(0 == username.compareTo(stat.getUsername()))
-				newStats.add(new JnomicsThriftJobStatus(stat.getJobID().toString(),
-						stat.getUsername(),
-						stat.getFailureInfo(),
-						stat.isJobComplete(),
-						stat.getRunState(),
-						stat.getStartTime(),
-						stat.getJobPriority().toString(),
-						stat.mapProgress(),
-						stat.reduceProgress()));
+				newStats.add(JnomicsJobStatusIndex.toThriftStatus(stat));
 		}
 		return newStats;
 	}
@@ -831,7 +828,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		FileSystem fs = null;
 		try {
 			fs = FileSystem.get(new URI(properties.getProperty("hdfs-default-name")),
-					new Configuration(),username);
+					getGenericConf(),username);
 			if(!fs.exists(new Path("manifests"))){
 				fs.mkdirs(new Path("manifests"));
 			}
@@ -950,6 +947,7 @@ public class JnomicsComputeHandler implements JnomicsCompute.Iface{
 		}.run();
 		String jobid = runningJob.getID().toString();
 		logger.info("submitted job: " + conf.get("mapred.job.name") + " " + jobid);
+		jobIndex.requestRefresh();
 		return new JnomicsThriftJobID(jobid);
 	}
 
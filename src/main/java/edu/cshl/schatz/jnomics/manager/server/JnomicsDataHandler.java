@@ -1,6 +1,7 @@
 package edu.cshl.schatz.jnomics.manager.server;
 
 import edu.cshl.schatz.jnomics.manager.api.*;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
 import edu.cshl.schatz.jnomics.mapreduce.JnomicsJobBuilder;
 import edu.cshl.schatz.jnomics.tools.SELoaderMap;
 import edu.cshl.schatz.jnomics.tools.ShockLoad;
@@ -27,6 +28,7 @@ import us.kbase.shock.client.exceptions.InvalidShockUrlException;
 import us.kbase.shock.client.exceptions.ShockHttpException;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,6 +37,10 @@ import java.net.URL;
 import java.net.MalformedURLException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * User: james
@@ -44,30 +50,36 @@ import java.util.*;
 public class JnomicsDataHandler implements JnomicsData.Iface {
 
     private final org.slf4j.Logger log = LoggerFactory.getLogger(JnomicsDataHandler.class);
-    private final Map<UUID, JnomicsFsHandle> handleMap = Collections.synchronizedMap(new HashMap<UUID, JnomicsFsHandle>());
+    private static final int MAX_LISTING_PAGE = 10000;
+    private static final int COPY_RANGE_SIZE = 4 * 1024 * 1024;
+    private static final int COPY_READ_AHEAD = 8;
+
+    private final JnomicsHandleRegistry handleRegistry;
+    private final JnomicsUploadSessions uploadSessions;
+    private final ExecutorService statPool;
+    private final int asyncQueueChunks;
+    private final JnomicsServerCopy serverCopy;
+    private final JnomicsFastqIngest fastqIngest;
+    private final JnomicsBufferPool bufferPool;
     private Properties properties;
 
     //private static final int SHOCK_BUFFER_SIZE = 10000000;
     
     private JnomicsServiceAuthentication authenticator;
 
-       
-    private final ThreadLocal bufferCache = new ThreadLocal(){
-        @Override
-        protected Object initialValue() {
-            return new byte[2000000];
-        }
-    };
-    
+
     public JnomicsDataHandler(Properties props){
         properties = props;
         authenticator = new JnomicsServiceAuthentication();
-    }
-
-    private UUID getUniqueUUID(){
-        UUID b;
-        while(handleMap.containsKey(b = UUID.randomUUID())){}
-        return b;
+        handleRegistry = new JnomicsHandleRegistry(props);
+        uploadSessions = new JnomicsUploadSessions(props, handleRegistry);
+        statPool = Executors.newFixedThreadPool(Integer.parseInt(props.getProperty("data-stat-threads","16")));
+        asyncQueueChunks = Integer.parseInt(props.getProperty("data-async-queue-chunks","16"));
+        serverCopy = new JnomicsServerCopy(
+                Executors.newFixedThreadPool(Integer.parseInt(props.getProperty("data-copy-threads","16"))),
+                COPY_RANGE_SIZE, COPY_READ_AHEAD);
+        fastqIngest = new JnomicsFastqIngest(props);
+        bufferPool = new JnomicsBufferPool(props);
     }
 
      private FileSystem getFileSystem(String username) throws JnomicsThriftException {
@@ -82,17 +94,62 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         }
     }
     
-    public Map<UUID, JnomicsFsHandle> getHandleMap(){
-        return handleMap;
+    public JnomicsHandleRegistry getHandleRegistry(){
+        return handleRegistry;
     }
-    
+
+    private JnomicsFsHandle getHandle(JnomicsThriftHandle handle, Authentication auth) throws JnomicsThriftException {
+        JnomicsFsHandle jhandle = handleRegistry.get(UUID.fromString(handle.getUuid()));
+        if(null == jhandle){
+            throw new JnomicsThriftException("Invalid or expired handle: " + handle.getUuid());
+        }
+        if(!isOwner(jhandle, handle, auth)){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        return jhandle;
+    }
+
+    /**
+     * The session key issued with the handle is enough to use it, clients
+     * that don't send one are authenticated and must have opened the handle
+     */
+    private boolean isOwner(JnomicsFsHandle jhandle, JnomicsThriftHandle handle, Authentication auth){
+        if(handle.isSetSession())
+            return jhandle.checkSession(handle.getSession());
+        if(null == auth)
+            return false;
+        String username = authenticator.authenticate(auth);
+        return null != username && username.equals(jhandle.getOwner());
+    }
+
     @Override
     public JnomicsThriftHandle create(String path, Authentication auth) throws TException, JnomicsThriftException {
+        return createHandle(path, JnomicsFrameCodec.NONE, auth);
+    }
+
+    @Override
+    public JnomicsThriftHandle createCompressed(String path, List<String> codecs, Authentication auth)
+            throws TException, JnomicsThriftException {
+        return createHandle(path, JnomicsFrameCodec.negotiate(codecs), auth);
+    }
+
+    @Override
+    public JnomicsThriftHandle open(String path, Authentication auth) throws JnomicsThriftException, TException {
+        return openHandle(path, JnomicsFrameCodec.NONE, auth);
+    }
+
+    @Override
+    public JnomicsThriftHandle openCompressed(String path, List<String> codecs, Authentication auth)
+            throws TException, JnomicsThriftException {
+        return openHandle(path, JnomicsFrameCodec.negotiate(codecs), auth);
+    }
+
+    private JnomicsThriftHandle createHandle(String path, JnomicsFrameCodec codec, Authentication auth) throws JnomicsThriftException {
         String username;
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
         }
-        log.info("Creating file: " + path + " for user: "+ username);
+        log.info("Creating file: " + path + " for user: "+ username + " codec: " + codec.getName());
 
         FileSystem fs = getFileSystem(username);
 
@@ -102,23 +159,20 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         } catch (IOException e) {
             log.error("Problem creating file " + path);
             e.printStackTrace();
+            closeFileSystem(fs);
             throw new JnomicsThriftException(e.toString());
         }
-        
-        UUID nxtUUID = getUniqueUUID();
-        handleMap.put(nxtUUID,new JnomicsFsHandle(fs,stream));
-        
-        return new JnomicsThriftHandle(nxtUUID.toString());
+
+        return registerHandle(new JnomicsFsHandle(username,fs,stream), codec);
     }
 
-    @Override
-    public JnomicsThriftHandle open(String path, Authentication auth) throws JnomicsThriftException, TException {
+    private JnomicsThriftHandle openHandle(String path, JnomicsFrameCodec codec, Authentication auth) throws JnomicsThriftException {
         String username;
         if(null == (username = authenticator.authenticate(auth))){
             throw new JnomicsThriftException("Permission Denied");
         }
 
-        log.info("Opening file: " + path + " for user: " + username);
+        log.info("Opening file: " + path + " for user: " + username + " codec: " + codec.getName());
         
         FileSystem fs = getFileSystem(username);
         FSDataInputStream stream = null;
@@ -127,20 +181,45 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         }catch(Exception e){
             log.error("Problem opening file: " + path);
             e.printStackTrace();
+            closeFileSystem(fs);
             throw new JnomicsThriftException(e.toString());
         }
 
-        UUID nxtUUID = getUniqueUUID();
-        handleMap.put(nxtUUID,new JnomicsFsHandle(fs,stream));
-        return new JnomicsThriftHandle(nxtUUID.toString());
+        return registerHandle(new JnomicsFsHandle(username,fs,stream), codec);
     }
 
+    private JnomicsThriftHandle registerHandle(JnomicsFsHandle jhandle, JnomicsFrameCodec codec) throws JnomicsThriftException {
+        jhandle.setCodec(codec);
+        UUID nxtUUID;
+        try{
+            nxtUUID = handleRegistry.register(jhandle);
+        }catch(JnomicsThriftException e){
+            closeQuietly(jhandle);
+            throw e;
+        }
+        JnomicsThriftHandle handle = new JnomicsThriftHandle(nxtUUID.toString());
+        handle.setSession(jhandle.getSession());
+        if(JnomicsFrameCodec.NONE != codec)
+            handle.setCodec(codec.getName());
+        return handle;
+    }
 
     @Override
     public void write(JnomicsThriftHandle handle, ByteBuffer data, Authentication auth) throws TException, JnomicsThriftException {
-        JnomicsFsHandle jhandle = handleMap.get(UUID.fromString(handle.getUuid()));
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
+        //an upload session may be resumed while a write from the dropped connection is still running
         try {
-            jhandle.getOutStream().write(data.array());
+            synchronized (jhandle){
+                JnomicsFrameCodec codec = jhandle.getCodec();
+                byte[] scratch = JnomicsFrameCodec.NONE == codec ? null : bufferPool.take();
+                try{
+                    ByteBuffer plain = null == scratch ? data : codec.decompress(data, scratch);
+                    jhandle.getOutStream().write(plain.array(), plain.arrayOffset() + plain.position(), plain.remaining());
+                }finally{
+                    if(null != scratch)
+                        bufferPool.release(scratch);
+                }
+            }
         } catch (IOException e){
             log.error("Problem writing to file");
             e.printStackTrace();
@@ -149,21 +228,109 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         jhandle.updateLastUsed();
     }
     
+    /**
+     * Pipelined write, only queues the chunk for the handle's writer thread.
+     * Oneway, so problems are reported by the next flush or close
+     */
+    @Override
+    public void writeAsync(JnomicsThriftHandle handle, long seq, ByteBuffer data, Authentication auth) throws TException {
+        JnomicsFsHandle jhandle = handleRegistry.get(UUID.fromString(handle.getUuid()));
+        if(null == jhandle || null == jhandle.getOutStream()){
+            log.warn("Dropping chunk " + seq + " for invalid or expired handle: " + handle.getUuid());
+            return;
+        }
+        if(!isOwner(jhandle, handle, auth)){
+            log.warn("Dropping chunk " + seq + " for handle " + handle.getUuid() + ", permission denied");
+            return;
+        }
+        try{
+            jhandle.getAsyncWriter(asyncQueueChunks, bufferPool, handle.getUuid()).enqueue(seq, data);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public long flush(JnomicsThriftHandle handle, Authentication auth) throws TException, JnomicsThriftException {
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
+        if(null == jhandle.getOutStream()){
+            throw new JnomicsThriftException("Invalid write handle: " + handle.getUuid());
+        }
+        long acked;
+        try{
+            acked = jhandle.drainAsyncWriter();
+            synchronized (jhandle){
+                jhandle.getOutStream().sync();
+            }
+        }catch(IOException e){
+            log.error("Problem flushing handle " + handle.getUuid());
+            throw new JnomicsThriftException(e.toString());
+        }
+        jhandle.updateLastUsed();
+        return acked;
+    }
+
     @Override
     public ByteBuffer read(JnomicsThriftHandle handle, Authentication auth) throws TException, JnomicsThriftException {
-        JnomicsFsHandle jhandle = handleMap.get(UUID.fromString(handle.getUuid()));
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
 
-        byte[] buf = (byte[]) bufferCache.get();
         int bytesRead;
+        byte[] buf;
         try{
+            //the reply may wrap buf, it goes back to the pool once the reply is written
+            buf = bufferPool.lease();
             bytesRead = jhandle.getInStream().read(buf);
         } catch (IOException e) {
             throw new JnomicsThriftException(e.toString());
         }
         jhandle.updateLastUsed();
         if(-1 == bytesRead)
-            return ByteBuffer.allocate(0);
-        return ByteBuffer.wrap(buf,0,bytesRead);
+            bytesRead = 0;
+        //end of file is an empty frame in the handle's codec too
+        return encode(jhandle, ByteBuffer.wrap(buf,0,bytesRead));
+    }
+
+    private ByteBuffer encode(JnomicsFsHandle jhandle, ByteBuffer data) throws JnomicsThriftException {
+        try{
+            return jhandle.getCodec().compress(data);
+        }catch(IOException e){
+            log.error("Problem compressing data with " + jhandle.getCodec().getName());
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    /**
+     * Positioned read, leaves the stream offset untouched so several
+     * clients can pull different ranges of the same handle at once
+     */
+    @Override
+    public ByteBuffer readAt(JnomicsThriftHandle handle, long offset, int length, Authentication auth)
+            throws TException, JnomicsThriftException {
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
+        if(null == jhandle.getInStream()){
+            throw new JnomicsThriftException("Invalid read handle: " + handle.getUuid());
+        }
+        if(offset < 0 || length < 0){
+            throw new JnomicsThriftException("Invalid range offset: " + offset + " length: " + length);
+        }
+
+        byte[] buf;
+        int total = 0;
+        int bytesRead;
+        try{
+            buf = bufferPool.lease();
+            int toRead = Math.min(length, buf.length);
+            //pread may return short, keep going until the range is full or EOF
+            while(total < toRead &&
+                    -1 != (bytesRead = jhandle.getInStream().read(offset + total, buf, total, toRead - total))){
+                total += bytesRead;
+            }
+        } catch (IOException e) {
+            log.error("Problem reading range " + offset + "+" + length + " of handle " + handle.getUuid());
+            throw new JnomicsThriftException(e.toString());
+        }
+        jhandle.updateLastUsed();
+        return encode(jhandle, ByteBuffer.wrap(buf,0,total));
     }
 
 //    
@@ -355,32 +522,25 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
 //    }
     @Override
     public void close(JnomicsThriftHandle handle, Authentication auth) throws TException, JnomicsThriftException {
-        UUID u = UUID.fromString(handle.getUuid());
-        JnomicsFsHandle jhandle = handleMap.get(u);
-
-
-        if(jhandle.getOutStream() != null){
-            try {
-                jhandle.getOutStream().close();
-            } catch (IOException e) {
-                log.error("Problem closing file");
-                e.printStackTrace();
-                throw new JnomicsThriftException(e.toString());
-            }
-        }else if(jhandle.getInStream() != null){
-            try {
-                jhandle.getInStream().close();
-            } catch (IOException e) {
-                log.error("Problem closing file");
-                e.printStackTrace();
-                throw new JnomicsThriftException(e.toString());
-            }
+        JnomicsFsHandle jhandle = getHandle(handle, auth);
+        if(null == handleRegistry.remove(UUID.fromString(handle.getUuid()))){
+            throw new JnomicsThriftException("Invalid or expired handle: " + handle.getUuid());
         }
 
         try {
-            closeFileSystem(jhandle.getFileSystem());
-        }finally{
-            handleMap.remove(u);
+            jhandle.close();
+        } catch (IOException e) {
+            log.error("Problem closing file");
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    private void closeQuietly(JnomicsFsHandle jhandle){
+        try{
+            jhandle.close();
+        }catch(IOException e){
+            log.warn("Problem closing handle: " + e.toString());
         }
     }
     
@@ -449,23 +609,57 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
             return new ArrayList<JnomicsThriftFileStatus>();
 
         JnomicsThriftFileStatus[] thriftStatuses = new JnomicsThriftFileStatus[stats.length];
-        FileStatus c;
         for(int i=0; i< stats.length; ++i){
-            c = stats[i];
-            thriftStatuses[i] = new JnomicsThriftFileStatus(c.isDir(),
-                    c.getPath().toString(),
-                    c.getOwner(),
-                    c.getGroup(),
-                    c.getPermission().toString(),
-                    c.getReplication(),
-                    c.getModificationTime(),
-                    c.getBlockSize(),
-                    c.getLen()
-            );
+            thriftStatuses[i] = toThriftStatus(stats[i]);
         }
         
         return Arrays.asList(thriftStatuses);
     }
+
+    @Override
+    public JnomicsThriftListing listStatusPaged(String path, String startAfter, int limit, boolean recursive,
+                                                Authentication auth) throws TException, JnomicsThriftException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Getting file status page of "+ path + " after '" + startAfter + "' for user "+ username);
+
+        if(limit < 1 || limit > MAX_LISTING_PAGE)
+            limit = MAX_LISTING_PAGE;
+
+        FileSystem fs = getFileSystem(username);
+        JnomicsDirectoryLister.Page page;
+        try{
+            page = new JnomicsDirectoryLister(fs).list(new Path(path), startAfter, limit, recursive);
+        }catch(Exception e){
+            log.error("Could not list " + path + " for user " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            closeFileSystem(fs);
+        }
+
+        List<JnomicsThriftFileStatus> thriftStatuses = new ArrayList<JnomicsThriftFileStatus>(page.getStatuses().size());
+        for(FileStatus c : page.getStatuses()){
+            thriftStatuses.add(toThriftStatus(c));
+        }
+        return new JnomicsThriftListing(thriftStatuses, page.getCursor(), page.hasMore());
+    }
+
+    private static JnomicsThriftFileStatus toThriftStatus(FileStatus c){
+        return new JnomicsThriftFileStatus(c.isDir(),
+                c.getPath().toString(),
+                c.getOwner(),
+                c.getGroup(),
+                c.getPermission().toString(),
+                c.getReplication(),
+                c.getModificationTime(),
+                c.getBlockSize(),
+                c.getLen()
+        );
+    }
 	@Override
 	public boolean checkFileStatus(String path, Authentication auth) throws TException, JnomicsThriftException {
         String username;
@@ -555,6 +749,206 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         return state;
     }
 
+    @Override
+    public boolean joinParts(List<String> parts, String dest, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Joining " + parts.size() + " parts into " + dest + " for user " + username);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            Path destPath = new Path(dest);
+            if(1 == parts.size()){
+                //nothing to join, just move it into place
+                Path part = new Path(parts.get(0));
+                if(fs.makeQualified(part).equals(fs.makeQualified(destPath)))
+                    return true;
+                if(fs.exists(destPath)){
+                    if(fs.getFileStatus(destPath).isDir())
+                        throw new IOException("Destination is a directory: " + dest);
+                    fs.delete(destPath, false);
+                }
+                //rename does not create missing parents, create did
+                if(null != destPath.getParent())
+                    fs.mkdirs(destPath.getParent());
+                if(!fs.rename(part, destPath))
+                    throw new IOException("Could not move " + parts.get(0) + " to " + dest);
+                return true;
+            }
+            serverCopy.copy(fs, toPaths(parts), destPath);
+            for(String part: parts){
+                fs.delete(new Path(part), false);
+            }
+        }catch(IOException e){
+            log.error("Problem joining parts into " + dest + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            closeFileSystem(fs);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean copy(String src, String dest, Authentication auth) throws JnomicsThriftException, TException {
+        return concat(Collections.singletonList(src), dest, auth);
+    }
+
+    @Override
+    public boolean concat(List<String> srcs, String dest, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Copying " + srcs + " to " + dest + " for user " + username);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            serverCopy.copy(fs, toPaths(srcs), new Path(dest));
+        }catch(IOException e){
+            log.error("Problem copying " + srcs + " to " + dest + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            closeFileSystem(fs);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean mergeParts(String dir, String dest, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Merging parts of " + dir + " into " + dest + " for user " + username);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            FileStatus[] stats = fs.listStatus(new Path(dir), new PathFilter() {
+                @Override
+                public boolean accept(Path path) {
+                    return path.getName().startsWith("part-");
+                }
+            });
+            if(null == stats)
+                throw new JnomicsThriftException("Directory does not exist: " + dir);
+            List<Path> parts = new ArrayList<Path>();
+            for(FileStatus stat: stats){
+                if(!stat.isDir())
+                    parts.add(stat.getPath());
+            }
+            //part-00000, part-00001 ... and part-r-00000 sort into job output order
+            Collections.sort(parts);
+            if(parts.isEmpty())
+                throw new JnomicsThriftException("No part files in " + dir);
+            serverCopy.copy(fs, parts, new Path(dest));
+        }catch(IOException e){
+            log.error("Problem merging parts of " + dir + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }finally{
+            closeFileSystem(fs);
+        }
+        return true;
+    }
+
+    private static List<Path> toPaths(List<String> paths){
+        List<Path> out = new ArrayList<Path>(paths.size());
+        for(String p: paths){
+            out.add(new Path(p));
+        }
+        return out;
+    }
+
+    @Override
+    public String ingestFastq(List<String> inputs, String output, boolean interleaved, int shards, Authentication auth)
+            throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        return fastqIngest.submit(username, inputs, output, interleaved, shards);
+    }
+
+    @Override
+    public JnomicsThriftIngestStatus ingestStatus(String ingestId, Authentication auth)
+            throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        return fastqIngest.status(username, ingestId);
+    }
+
+    @Override
+    public String startUpload(String path, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        try{
+            return uploadSessions.start(username, path);
+        }catch(IOException e){
+            log.error("Problem starting upload to " + path + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    @Override
+    public JnomicsThriftUploadStatus resumeUpload(String sessionId, List<String> codecs, Authentication auth)
+            throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        try{
+            return uploadSessions.resume(username, sessionId, JnomicsFrameCodec.negotiate(codecs));
+        }catch(IOException e){
+            log.error("Problem resuming upload session " + sessionId + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }
+    }
+
+    @Override
+    public boolean finishUpload(String sessionId, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        try{
+            uploadSessions.finish(username, sessionId);
+        }catch(IOException e){
+            log.error("Problem finishing upload session " + sessionId + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean abortUpload(String sessionId, Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+        try{
+            uploadSessions.abort(username, sessionId);
+        }catch(IOException e){
+            log.error("Problem aborting upload session " + sessionId + " for user: " + username);
+            e.printStackTrace();
+            throw new JnomicsThriftException(e.toString());
+        }
+        return true;
+    }
+
     @Override
     public List<String> listGenomes(Authentication auth) throws JnomicsThriftException, TException {
         String username;
@@ -565,23 +959,129 @@ public class JnomicsDataHandler implements JnomicsData.Iface {
         log.info("Listing genomes for user "+ username);
         
         FileSystem fs = getFileSystem(username);
-        List<String> genomeList = new ArrayList<String>();
         try {
-            FileStatus[] stats = fs.listStatus(new Path(properties.getProperty("hdfs-index-repo")));
-            for(FileStatus stat: stats){
-                String name = stat.getPath().getName();
-                if(name.contains("_samtools.tar.gz")){
-                    genomeList.add(name.substring(0,name.indexOf("_samtools.tar.gz")));
-                }
-            }
+            return genomeNames(fs);
         } catch (IOException e) {
             throw new JnomicsThriftException(e.toString());
         }finally{
             closeFileSystem(fs);
         }
+    }
 
+    private List<String> genomeNames(FileSystem fs) throws IOException {
+        List<String> genomeList = new ArrayList<String>();
+        FileStatus[] stats = fs.listStatus(new Path(properties.getProperty("hdfs-index-repo")));
+        for(FileStatus stat: stats){
+            String name = stat.getPath().getName();
+            if(name.contains("_samtools.tar.gz")){
+                genomeList.add(name.substring(0,name.indexOf("_samtools.tar.gz")));
+            }
+        }
         return genomeList;
     }
+
+    @Override
+    public List<JnomicsThriftPathStatus> statPaths(List<String> paths, Authentication auth)
+            throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Getting status of " + paths.size() + " paths for user " + username);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            return statAll(fs, paths);
+        }finally{
+            closeFileSystem(fs);
+        }
+    }
+
+    @Override
+    public JnomicsThriftJobValidation validateJobInputs(List<String> inputs, String output, String genome,
+                                                        Authentication auth) throws JnomicsThriftException, TException {
+        String username;
+        if(null == (username = authenticator.authenticate(auth))){
+            throw new JnomicsThriftException("Permission Denied");
+        }
+
+        log.info("Validating job inputs " + inputs + " output " + output + " for user " + username);
+
+        List<String> paths = new ArrayList<String>(inputs);
+        paths.add(output);
+
+        FileSystem fs = getFileSystem(username);
+        try{
+            Future<List<String>> genomes = null;
+            if(null != genome && !genome.isEmpty()){
+                final FileSystem genomeFs = fs;
+                genomes = statPool.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        return genomeNames(genomeFs);
+                    }
+                });
+            }
+
+            List<JnomicsThriftPathStatus> stats = statAll(fs, paths);
+            List<String> missing = new ArrayList<String>();
+            for(JnomicsThriftPathStatus stat : stats.subList(0, inputs.size())){
+                if(!stat.isExists())
+                    missing.add(stat.getPath());
+            }
+            boolean outputExists = stats.get(inputs.size()).isExists();
+
+            boolean genomeAvailable = true;
+            if(null != genomes){
+                try{
+                    genomeAvailable = genomes.get().contains(genome);
+                }catch(Exception e){
+                    throw new JnomicsThriftException(e.toString());
+                }
+            }
+            return new JnomicsThriftJobValidation(missing, outputExists, genomeAvailable);
+        }finally{
+            closeFileSystem(fs);
+        }
+    }
+
+    /**
+     * Stat each path on the stat pool, results are in the order of paths
+     */
+    private List<JnomicsThriftPathStatus> statAll(final FileSystem fs, List<String> paths) throws JnomicsThriftException {
+        List<Future<JnomicsThriftPathStatus>> futures = new ArrayList<Future<JnomicsThriftPathStatus>>(paths.size());
+        for(final String path : paths){
+            futures.add(statPool.submit(new Callable<JnomicsThriftPathStatus>() {
+                @Override
+                public JnomicsThriftPathStatus call() throws Exception {
+                    JnomicsThriftPathStatus status = new JnomicsThriftPathStatus();
+                    status.setPath(path);
+                    try{
+                        status.setStatus(toThriftStatus(fs.getFileStatus(new Path(path))));
+                        status.setExists(true);
+                    }catch(FileNotFoundException e){
+                        status.setExists(false);
+                    }
+                    return status;
+                }
+            }));
+        }
+
+        List<JnomicsThriftPathStatus> statuses = new ArrayList<JnomicsThriftPathStatus>(paths.size());
+        try{
+            for(Future<JnomicsThriftPathStatus> f : futures){
+                statuses.add(f.get());
+            }
+        }catch(Exception e){
+            for(Future<JnomicsThriftPathStatus> f : futures){
+                f.cancel(true);
+            }
+            log.error("Problem getting path status: " + e.toString());
+            throw new JnomicsThriftException(e.toString());
+        }
+        return statuses;
+    }
     
     
 
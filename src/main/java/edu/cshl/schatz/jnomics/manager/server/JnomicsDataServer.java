@@ -6,12 +6,9 @@ import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.TThreadPoolServer;
 import org.apache.thrift.transport.*;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.util.Properties;
 
 /**
@@ -33,8 +30,15 @@ public class JnomicsDataServer {
 
         @Override
         public boolean process(TProtocol in, TProtocol out) throws TException {
-            System.err.println("Processing from client: " + ((TSocket)in.getTransport()).getSocket().getInetAddress());
-            return super.process(in,out);
+            //behind JnomicsProtocolNegotiator the socket is wrapped, it logs each connection instead
+            if(in.getTransport() instanceof TSocket)
+                System.err.println("Processing from client: " + ((TSocket)in.getTransport()).getSocket().getInetAddress());
+            try{
+                return super.process(in,out);
+            }finally{
+                //the reply is written, read buffers can be reused
+                JnomicsBufferPool.releaseLeased();
+            }
         }
     }
 
@@ -42,27 +46,14 @@ public class JnomicsDataServer {
 
         Properties prop = JnomicsApiConfig.getServerProperties();
 
-        int port = Integer.parseInt(prop.getProperty("data-server-port",Integer.toString(DEFAULTPORT)));
-        String host = prop.getProperty("data-server-host");
-        String keyStore = System.getProperty("jkserver_keystore");
-        if(null == keyStore || !new File(keyStore).exists()){
-            throw new IOException("Cannot find key store: " + keyStore);
-        }
-
 	//JnomicsApiConfig.setHTTPProxy(prop.getProperty("http-proxy", null));
         
         JnomicsDataHandler handler = new JnomicsDataHandler(prop);
         Thread garbageCollectorThread = new Thread(new JnomicsHandleGarbageCollector(handler));
         JnomicsData.Processor processor = new JnomicsDataProcessorHax(handler);
 
-        TSSLTransportFactory.TSSLTransportParameters params = new TSSLTransportFactory.TSSLTransportParameters();
-        params.setKeyStore(keyStore,"kbasekeystore");
-        TServerTransport serverTransport = TSSLTransportFactory.getServerSocket(port,10000,
-                InetAddress.getByName(host),params);
-
-        TServer server = new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport).processor(processor));
+        TServer server = JnomicsServerFactory.create(prop, "data", DEFAULTPORT, processor);
 
-        System.out.println("Starting server port "+ port +"...");
         garbageCollectorThread.start();
         server.serve();
         garbageCollectorThread.interrupt();
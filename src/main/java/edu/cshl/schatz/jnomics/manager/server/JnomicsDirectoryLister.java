@@ -0,0 +1,174 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Cursor based directory listing.
+ *
+ * Pages come straight from the namenode's partial listing (listPaths with
+ * a startAfter name), so a huge directory is never held in memory at once.
+ * Recursive listings walk the tree depth first; the cursor is the path of
+ * the last entry returned relative to the listing root, with a trailing
+ * '/' when that entry is a directory whose children are still to come.
+ * Resuming rebuilds one frame per path component, so server memory stays
+ * at one namenode page per level of depth plus the requested page.
+ */
+public class JnomicsDirectoryLister {
+
+    public static class Page {
+        private final List<FileStatus> statuses;
+        private final String cursor;
+        private final boolean more;
+
+        Page(List<FileStatus> statuses, String cursor, boolean more){
+            this.statuses = statuses;
+            this.cursor = cursor;
+            this.more = more;
+        }
+
+        public List<FileStatus> getStatuses() {
+            return statuses;
+        }
+
+        /** pass back as startAfter to get the next page **/
+        public String getCursor() {
+            return cursor;
+        }
+
+        /** false once the listing is known to be complete **/
+        public boolean hasMore() {
+            return more;
+        }
+    }
+
+    /** One directory being walked: its remaining namenode page and where to resume **/
+    private class Frame {
+        final Path dir;
+        final String relative;
+        String lastName;
+        LinkedList<FileStatus> pending = new LinkedList<FileStatus>();
+        boolean exhausted = false;
+
+        Frame(Path dir, String relative, String startAfter){
+            this.dir = dir;
+            this.relative = relative;
+            this.lastName = startAfter;
+        }
+
+        /** next entry of this directory, null when there are none left **/
+        FileStatus next() throws IOException {
+            if(pending.isEmpty() && !exhausted){
+                exhausted = !fetch(this);
+            }
+            return pending.poll();
+        }
+    }
+
+    private final FileSystem fs;
+
+    public JnomicsDirectoryLister(FileSystem fs){
+        this.fs = fs;
+    }
+
+    public Page list(Path root, String startAfter, int limit, boolean recursive) throws IOException {
+        Path qualifiedRoot = fs.makeQualified(root);
+        if(null == startAfter)
+            startAfter = "";
+
+        LinkedList<Frame> stack = new LinkedList<Frame>();
+        if(recursive){
+            boolean descend = startAfter.endsWith("/");
+            String[] parts = startAfter.isEmpty() ? new String[0] : startAfter.split("/");
+            Path dir = qualifiedRoot;
+            String relative = "";
+            if(0 == parts.length){
+                stack.push(new Frame(dir, relative, ""));
+            }
+            for(String part : parts){
+                stack.push(new Frame(dir, relative, part));
+                dir = new Path(dir, part);
+                relative = relative + part + "/";
+            }
+            if(descend)
+                stack.push(new Frame(dir, relative, ""));
+        }else{
+            stack.push(new Frame(qualifiedRoot, "", startAfter));
+        }
+
+        List<FileStatus> out = new ArrayList<FileStatus>(Math.min(limit, 1024));
+        String cursor = startAfter;
+        while(out.size() < limit && !stack.isEmpty()){
+            Frame top = stack.peek();
+            FileStatus stat = top.next();
+            if(null == stat){
+                stack.pop();
+                continue;
+            }
+            String name = stat.getPath().getName();
+            top.lastName = name;
+            out.add(stat);
+            cursor = top.relative + name;
+            if(recursive && stat.isDir()){
+                stack.push(new Frame(stat.getPath(), cursor + "/", ""));
+                cursor = cursor + "/";
+            }
+        }
+        return new Page(out, cursor, !stack.isEmpty());
+    }
+
+    /**
+     * Load the next namenode page of frame.dir after frame.lastName
+     * @return false if the directory has no more entries after this page
+     */
+    private boolean fetch(Frame frame) throws IOException {
+        FileSystem dfs = JnomicsFileSystem.unwrap(fs);
+        if(dfs instanceof DistributedFileSystem){
+            byte[] after = frame.lastName.isEmpty() ? HdfsFileStatus.EMPTY_NAME : frame.lastName.getBytes("UTF-8");
+            DirectoryListing listing = ((DistributedFileSystem) dfs).getClient()
+                    .listPaths(frame.dir.toUri().getPath(), after);
+            if(null == listing){
+                if(frame.relative.isEmpty())
+                    throw new FileNotFoundException("File " + frame.dir + " does not exist.");
+                return false; //removed while we were walking it
+            }
+            for(HdfsFileStatus s : listing.getPartialListing()){
+                frame.pending.add(new FileStatus(s.getLen(), s.isDir(), s.getReplication(), s.getBlockSize(),
+                        s.getModificationTime(), s.getAccessTime(), s.getPermission(), s.getOwner(), s.getGroup(),
+                        s.getFullPath(frame.dir)));
+            }
+            return listing.hasMore();
+        }
+
+        //other filesystems have no partial listing, page over a sorted full listing
+        FileStatus[] stats = fs.listStatus(frame.dir);
+        if(null == stats){
+            if(frame.relative.isEmpty())
+                throw new FileNotFoundException("File " + frame.dir + " does not exist.");
+            return false;
+        }
+        Arrays.sort(stats, new Comparator<FileStatus>() {
+            @Override
+            public int compare(FileStatus a, FileStatus b) {
+                return a.getPath().getName().compareTo(b.getPath().getName());
+            }
+        });
+        for(FileStatus s : stats){
+            if(s.getPath().getName().compareTo(frame.lastName) > 0)
+                frame.pending.add(s);
+        }
+        return false;
+    }
+}
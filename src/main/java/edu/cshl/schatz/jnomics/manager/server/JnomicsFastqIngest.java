@@ -0,0 +1,362 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.io.FastqParser;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftIngestStatus;
+import edu.cshl.schatz.jnomics.ob.ReadCollectionWritable;
+import edu.cshl.schatz.jnomics.ob.ReadWritable;
+import edu.cshl.schatz.jnomics.util.FileUtil;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Turns raw fastq already uploaded to hdfs into block compressed
+ * SequenceFiles of ReadCollectionWritable, on the data server.
+ *
+ * Each ingest is a pipeline: one thread per input file decompresses and
+ * parses batches of reads, the ingest thread pairs the batches up and
+ * deals them out to one writer thread per output shard, which serialize
+ * and compress. Queues between the stages are bounded so memory stays at
+ * a few batches per thread. Ingests run in the background, clients poll
+ * status() until they are complete.
+ */
+public class JnomicsFastqIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsFastqIngest.class);
+
+    /** reads per batch handed between threads, even so interleaved pairs never straddle two **/
+    private static final int BATCH_SIZE = 10000;
+    private static final int QUEUE_BATCHES = 4;
+    /** finished ingests nobody asked about are forgotten after this long **/
+    private static final long FORGET_MS = 24 * 3600 * 1000L;
+
+    private static final List<String[]> END = Collections.emptyList();
+
+    private class Ingest implements Runnable {
+        final String id;
+        final String owner;
+        final List<String> inputs;
+        final String output;
+        final boolean interleaved;
+        final int shards;
+        final AtomicLong reads = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        /** outputs this ingest wrote, removed again if it fails **/
+        final List<Path> written = Collections.synchronizedList(new ArrayList<Path>());
+        volatile boolean complete = false;
+        volatile long finishedAt = 0;
+
+        Ingest(String id, String owner, List<String> inputs, String output, boolean interleaved, int shards){
+            this.id = id;
+            this.owner = owner;
+            this.inputs = inputs;
+            this.output = output;
+            this.interleaved = interleaved;
+            this.shards = shards;
+        }
+
+        @Override
+        public void run() {
+            try{
+                ingest(this);
+                log.info("Ingest " + id + " wrote " + reads.get() + " records to " + output);
+            }catch(Throwable t){
+                log.error("Ingest " + id + " into " + output + " failed: " + t.toString());
+                failure.compareAndSet(null, t);
+            }finally{
+                finishedAt = System.currentTimeMillis();
+                complete = true;
+            }
+        }
+    }
+
+    private final Properties properties;
+    private final ExecutorService ingests;
+    private final ConcurrentMap<String, Ingest> running = new ConcurrentHashMap<String, Ingest>();
+
+    public JnomicsFastqIngest(Properties properties){
+        this.properties = properties;
+        ingests = Executors.newFixedThreadPool(Integer.parseInt(properties.getProperty("data-ingest-threads","4")));
+    }
+
+    /**
+     * Start an ingest. Two inputs are paired end mates, one input is single
+     * end unless interleaved
+     * @return id to poll with status()
+     */
+    public String submit(String username, List<String> inputs, String output, boolean interleaved, int shards)
+            throws JnomicsThriftException {
+        if(inputs.isEmpty() || inputs.size() > 2 || (interleaved && inputs.size() != 1))
+            throw new JnomicsThriftException("Ingest takes one fastq, one interleaved fastq or two paired fastq files");
+        if(shards < 1)
+            throw new JnomicsThriftException("Invalid shard count: " + shards);
+        forgetOld();
+        String id = UUID.randomUUID().toString();
+        Ingest ingest = new Ingest(id, username, new ArrayList<String>(inputs), output, interleaved, shards);
+        running.put(id, ingest);
+        ingests.submit(ingest);
+        log.info("Ingest " + id + " of " + inputs + " into " + output + " for user " + username);
+        return id;
+    }
+
+    public JnomicsThriftIngestStatus status(String username, String id) throws JnomicsThriftException {
+        Ingest ingest = running.get(id);
+        if(null == ingest || !username.equals(ingest.owner))
+            throw new JnomicsThriftException("Unknown ingest: " + id);
+        JnomicsThriftIngestStatus status = new JnomicsThriftIngestStatus(ingest.complete, ingest.reads.get());
+        Throwable t = ingest.failure.get();
+        if(null != t)
+            status.setError(t.toString());
+        //complete ingests stay until forgetOld, a client whose reply got lost asks again
+        return status;
+    }
+
+    private void forgetOld(){
+        long now = System.currentTimeMillis();
+        for(Ingest ingest : running.values()){
+            if(ingest.complete && now - ingest.finishedAt > FORGET_MS)
+                running.remove(ingest.id);
+        }
+    }
+
+    private void ingest(final Ingest ingest) throws Exception {
+        final FileSystem fs = JnomicsFileSystem.getFileSystem(properties, ingest.owner);
+        List<Thread> threads = new ArrayList<Thread>();
+        try{
+            List<BlockingQueue<List<String[]>>> parsed = new ArrayList<BlockingQueue<List<String[]>>>();
+            for(final String input : ingest.inputs){
+                final BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<List<String[]>>(QUEUE_BATCHES);
+                parsed.add(queue);
+                threads.add(start(ingest, "parse", new Stage() {
+                    @Override
+                    public void run() throws Exception {
+                        parse(ingest, fs, new Path(input), queue);
+                    }
+                }));
+            }
+
+            final boolean paired = 2 == ingest.inputs.size() || ingest.interleaved;
+            Path out = new Path(ingest.output);
+            if(ingest.shards > 1 && !fs.exists(out)){
+                fs.mkdirs(out);
+                ingest.written.add(out);
+            }
+            List<BlockingQueue<List<String[]>>> shardQueues = new ArrayList<BlockingQueue<List<String[]>>>();
+            for(int i = 0; i < ingest.shards; i++){
+                final BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<List<String[]>>(QUEUE_BATCHES);
+                final Path shard = 1 == ingest.shards ? out : new Path(out, String.format("part-%05d", i));
+                shardQueues.add(queue);
+                threads.add(start(ingest, "write", new Stage() {
+                    @Override
+                    public void run() throws Exception {
+                        write(ingest, fs, shard, paired, queue);
+                    }
+                }));
+            }
+
+            //pair up batches from the parsers and deal them out to the writers
+            int next = 0;
+            while(true){
+                List<String[]> batch = take(ingest, parsed.get(0));
+                if(2 == parsed.size()){
+                    List<String[]> mates = take(ingest, parsed.get(1));
+                    if(batch.size() != mates.size())
+                        throw new IOException("Paired fastq files have a different number of reads");
+                    if(END != batch){
+                        List<String[]> pairs = new ArrayList<String[]>(batch.size() * 2);
+                        for(int i = 0; i < batch.size(); i++){
+                            pairs.add(batch.get(i));
+                            pairs.add(mates.get(i));
+                        }
+                        batch = pairs;
+                    }
+                }else if(ingest.interleaved && 0 != batch.size() % 2){
+                    throw new IOException("Interleaved fastq has an odd number of reads");
+                }
+                if(END == batch)
+                    break;
+                put(ingest, shardQueues.get(next), batch);
+                next = (next + 1) % shardQueues.size();
+            }
+            for(BlockingQueue<List<String[]>> queue : shardQueues){
+                put(ingest, queue, END);
+            }
+            for(Thread t : threads){
+                t.join();
+            }
+            rethrow(ingest);
+        }catch(Exception e){
+            ingest.failure.compareAndSet(null, e);
+            throw e;
+        }finally{
+            for(Thread t : threads){
+                t.interrupt();
+            }
+            if(null != ingest.failure.get())
+                removeOutput(ingest, fs, threads);
+            fs.close();
+        }
+    }
+
+    /**
+     * A partial SequenceFile reads like a whole one, so a failed ingest
+     * takes back what it wrote once its writers have stopped
+     */
+    private void removeOutput(Ingest ingest, FileSystem fs, List<Thread> threads){
+        try{
+            for(Thread t : threads){
+                t.join();
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        List<Path> written;
+        synchronized (ingest.written){
+            written = new ArrayList<Path>(ingest.written);
+        }
+        for(Path path : written){
+            try{
+                fs.delete(path, true);
+            }catch(IOException e){
+                log.warn("Could not remove " + path + " of failed ingest " + ingest.id + ": " + e.toString());
+            }
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private Thread start(final Ingest ingest, String name, final Stage stage){
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    stage.run();
+                }catch(InterruptedException e){
+                    //another stage failed and we were told to stop
+                }catch(Throwable e){
+                    ingest.failure.compareAndSet(null, e);
+                }
+            }
+        }, "jnomics-ingest-" + name + "-" + ingest.id);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private void parse(Ingest ingest, FileSystem fs, Path input, BlockingQueue<List<String[]>> queue) throws Exception {
+        InputStream in = FileUtil.getInputStreamWrapperFromExtension(fs.open(input),
+                FileUtil.getExtension(input.getName()));
+        FastqParser parser = new FastqParser(in);
+        try{
+            List<String[]> batch = new ArrayList<String[]>(BATCH_SIZE);
+            for(FastqParser.FastqRecord record : parser){
+                batch.add(new String[]{record.getName(), record.getSequence(),
+                        record.getDescription(), record.getQuality()});
+                if(BATCH_SIZE == batch.size()){
+                    put(ingest, queue, batch);
+                    batch = new ArrayList<String[]>(BATCH_SIZE);
+                }
+            }
+            if(!batch.isEmpty())
+                put(ingest, queue, batch);
+            put(ingest, queue, END);
+        }finally{
+            parser.close();
+            in.close();
+        }
+    }
+
+    private void write(Ingest ingest, FileSystem fs, Path shard, boolean paired,
+                       BlockingQueue<List<String[]>> queue) throws Exception {
+        ReadCollectionWritable key = new ReadCollectionWritable();
+        ReadWritable r1 = new ReadWritable();
+        ReadWritable r2 = new ReadWritable();
+        key.addRead(r1);
+        if(paired)
+            key.addRead(r2);
+        Text keyName = new Text();
+        key.setName(keyName);
+        NullWritable value = NullWritable.get();
+
+        ingest.written.add(shard);
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, fs.getConf(), shard,
+                key.getClass(), value.getClass(), SequenceFile.CompressionType.BLOCK);
+        try{
+            List<String[]> batch;
+            int step = paired ? 2 : 1;
+            while(END != (batch = take(ingest, queue))){
+                for(int i = 0; i < batch.size(); i += step){
+                    String[] read = batch.get(i);
+                    r1.setAll(read[0], read[1], read[2], read[3]);
+                    if(paired){
+                        String[] mate = batch.get(i + 1);
+                        r2.setAll(mate[0], mate[1], mate[2], mate[3]);
+                        keyName.set(pairName(read[0]));
+                    }else{
+                        keyName.set(read[0]);
+                    }
+                    writer.append(key, value);
+                    ingest.reads.incrementAndGet();
+                }
+            }
+        }finally{
+            writer.close();
+        }
+    }
+
+    /** name of a read with any /1 mate suffix removed **/
+    private static String pairName(String name){
+        if(name.endsWith("/1") || name.endsWith("/2"))
+            return name.substring(0, name.length() - 2);
+        return name;
+    }
+
+    /** queue put that gives up once another stage has failed **/
+    private static void put(Ingest ingest, BlockingQueue<List<String[]>> queue, List<String[]> batch) throws Exception {
+        while(!queue.offer(batch, 1, TimeUnit.SECONDS)){
+            rethrow(ingest);
+        }
+    }
+
+    /** queue take that gives up once another stage has failed **/
+    private static List<String[]> take(Ingest ingest, BlockingQueue<List<String[]>> queue) throws Exception {
+        List<String[]> batch;
+        while(null == (batch = queue.poll(1, TimeUnit.SECONDS))){
+            rethrow(ingest);
+        }
+        return batch;
+    }
+
+    private static void rethrow(Ingest ingest) throws Exception {
+        Throwable t = ingest.failure.get();
+        if(null == t)
+            return;
+        if(t instanceof Exception)
+            throw (Exception) t;
+        throw new IOException(t.toString());
+    }
+}
@@ -1,22 +1,117 @@
 package edu.cshl.schatz.jnomics.manager.server;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.slf4j.LoggerFactory;
 
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
 
+/**
+ * Hands out hdfs FileSystems per user.
+ *
+ * One FileSystem is kept open per user and shared by all requests for
+ * that user. Callers get a lightweight wrapper whose close() only drops
+ * their reference; the underlying FileSystem is closed once it has had
+ * no references for IDLE_TIMEOUT. Home directories are checked (and
+ * created) once per user rather than on every call.
+ */
 public class JnomicsFileSystem {
-    
+
 	private static final org.slf4j.Logger log = LoggerFactory.getLogger(JnomicsFileSystem.class);
 
-	public static FileSystem getFileSystem(Properties properties, String username) 
+	static final String SUPERUSER = "hdfs";
+	private static final long IDLE_TIMEOUT = 60 * 1000 * 10;
+	private static final long SWEEP_INTERVAL = 60 * 1000;
+
+	private static final ConcurrentMap<String, PooledEntry> pool = new ConcurrentHashMap<String, PooledEntry>();
+	private static final Set<String> provisionedHomes =
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static final Configuration baseConf = new Configuration();
+
+	static {
+		ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jnomics-fs-pool-sweeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweepIdle();
+			}
+		}, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/** One shared FileSystem and the number of callers currently using it **/
+	private static class PooledEntry {
+		private final FileSystem fs;
+		private int refs = 0;
+		private long lastReleased = System.currentTimeMillis();
+		private boolean closed = false;
+
+		PooledEntry(FileSystem fs){
+			this.fs = fs;
+		}
+
+		synchronized boolean acquire(){
+			if(closed)
+				return false;
+			refs++;
+			return true;
+		}
+
+		synchronized void release(){
+			refs--;
+			lastReleased = System.currentTimeMillis();
+		}
+
+		synchronized boolean closeIfIdle(long now){
+			if(closed || refs > 0 || now - lastReleased < IDLE_TIMEOUT)
+				return false;
+			closed = true;
+			return true;
+		}
+	}
+
+	/** What callers hold, close() gives the reference back to the pool **/
+	private static class PooledFileSystem extends FilterFileSystem {
+		private final PooledEntry entry;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		PooledFileSystem(PooledEntry entry){
+			super(entry.fs);
+			this.entry = entry;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(released.compareAndSet(false, true))
+				entry.release();
+		}
+	}
+
+	public static FileSystem getFileSystem(Properties properties, String username)
 												throws JnomicsThriftException {
         URI uri;
         String fsName = properties.getProperty("hdfs-default-name");
@@ -28,36 +123,88 @@ public class JnomicsFileSystem {
             throw new JnomicsThriftException(e.toString());
         }
 
-        FileSystem fs = null;
         /**Check if the user has a home directory**/
-        Path userHome = new Path("/user", username);
-        try {
-            fs = FileSystem.get(uri,new Configuration(), "hdfs");
-            FileStatus[] stats = fs.listStatus(userHome);
-            if(null == stats){ //create user's home directory
-                fs.mkdirs(userHome,new FsPermission("755"));
-                fs.setOwner(userHome,username,"kbase");
+        if(!provisionedHomes.contains(username)){
+            Path userHome = new Path("/user", username);
+            FileSystem fs = acquire(uri, SUPERUSER);
+            try {
+                FileStatus[] stats = fs.listStatus(userHome);
+                if(null == stats){ //create user's home directory
+                    fs.mkdirs(userHome,new FsPermission("755"));
+                    fs.setOwner(userHome,username,"kbase");
+                }
+                provisionedHomes.add(username);
+            } catch (Exception e) {
+                log.error("Error Creating Filesystem");
+                e.printStackTrace();
+                throw new JnomicsThriftException(e.toString());
+            } finally{
+                try{
+                    fs.close();
+                }catch(IOException e){
+                }
             }
-            fs.close();
-        } catch (Exception e) {
-            log.error("Error Creating Filesystem");
-            e.printStackTrace();
-            throw new JnomicsThriftException(e.toString());
-        }
-
-        try{
-            fs = FileSystem.get(uri, new Configuration(), username);
-        } catch(Exception e){
-            log.error("Problem creating filesystem");
-            e.printStackTrace();
-            throw new JnomicsThriftException(e.toString());
         }
 
-        return fs;
+        return acquire(uri, username);
     }
 
 	public static void closeFileSystem(FileSystem fs) throws Exception{
 		fs.close();
 	}
+
+	/**
+	 * The shared FileSystem behind a pooled one, for calls that need the
+	 * concrete implementation. Must not be closed by the caller
+	 */
+	public static FileSystem unwrap(FileSystem fs){
+		if(fs instanceof PooledFileSystem)
+			return ((PooledFileSystem)fs).entry.fs;
+		return fs;
+	}
+
+	private static FileSystem acquire(URI uri, String username) throws JnomicsThriftException {
+		while(true){
+			PooledEntry entry = pool.get(username);
+			if(null == entry){
+				FileSystem fs;
+				try{
+					fs = FileSystem.get(uri, baseConf, username);
+				} catch(Exception e){
+					log.error("Problem creating filesystem");
+					e.printStackTrace();
+					throw new JnomicsThriftException(e.toString());
+				}
+				entry = new PooledEntry(fs);
+				PooledEntry existing = pool.putIfAbsent(username, entry);
+				if(null != existing){
+					closeQuietly(fs);
+					entry = existing;
+				}
+			}
+			if(entry.acquire())
+				return new PooledFileSystem(entry);
+			//lost a race with the sweeper, it is closing this one
+			pool.remove(username, entry);
+		}
+	}
+
+	private static void sweepIdle(){
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, PooledEntry> e : pool.entrySet()){
+			if(e.getValue().closeIfIdle(now)){
+				pool.remove(e.getKey(), e.getValue());
+				closeQuietly(e.getValue().fs);
+				log.info("Closed idle filesystem for user " + e.getKey());
+			}
+		}
+	}
+
+	private static void closeQuietly(FileSystem fs){
+		try{
+			fs.close();
+		}catch(IOException e){
+			log.warn("Problem closing filesystem: " + e.toString());
+		}
+	}
 }
-		
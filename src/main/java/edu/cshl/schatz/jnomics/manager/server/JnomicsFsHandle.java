@@ -1,39 +1,167 @@
 package edu.cshl.schatz.jnomics.manager.server;
 
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
 /**
  * User: james
+ *
+ * Each handle gets a random session key when it is opened. The key goes
+ * back to the client in the thrift handle and proves the caller is the
+ * user that opened it, so chunk calls need no token.
  */
 
 public class JnomicsFsHandle{
 
+    private static final SecureRandom random = new SecureRandom();
+    private static final int SESSION_BYTES = 16;
+
+    private final String owner;
+    private final byte[] session = new byte[SESSION_BYTES];
     private FileSystem fileSystem = null;
     private FSDataOutputStream outStream = null;
     private FSDataInputStream inStream = null;
-    private long lastUsed;
+    private volatile long lastUsed;
+    private JnomicsFrameCodec codec = JnomicsFrameCodec.NONE;
+    private JnomicsAsyncWriter asyncWriter = null;
 
-    private JnomicsFsHandle(FileSystem fs){
+    private JnomicsFsHandle(String owner, FileSystem fs){
+        this.owner = owner;
+        random.nextBytes(session);
         fileSystem = fs;
         lastUsed = System.currentTimeMillis();
     }
 
-    public JnomicsFsHandle(FileSystem fs, FSDataOutputStream stream){
-        this(fs);
+    public JnomicsFsHandle(String owner, FileSystem fs, FSDataOutputStream stream){
+        this(owner, fs);
         outStream = stream;
     }
 
-    public JnomicsFsHandle(FileSystem fs, FSDataInputStream stream){
-        this(fs);
+    public JnomicsFsHandle(String owner, FileSystem fs, FSDataInputStream stream){
+        this(owner, fs);
         inStream = stream;
     }
-    
+
     public void updateLastUsed(){
         lastUsed = System.currentTimeMillis();
     }
-    
+
+    /**
+     * Writer thread for pipelined writes, started on first use
+     */
+    public synchronized JnomicsAsyncWriter getAsyncWriter(int capacity, JnomicsBufferPool buffers, String name){
+        if(null == asyncWriter)
+            asyncWriter = new JnomicsAsyncWriter(this, capacity, buffers, name);
+        return asyncWriter;
+    }
+
+    /**
+     * Finish pending pipelined writes and drop the writer, the next
+     * writeAsync starts a new one with sequence numbers from 0
+     * @return false if a pipelined write had failed
+     */
+    public boolean resetAsyncWriter(){
+        JnomicsAsyncWriter writer;
+        //the writer thread locks this handle for every chunk, finish it outside the lock
+        synchronized (this){
+            writer = asyncWriter;
+            asyncWriter = null;
+        }
+        if(null == writer)
+            return true;
+        try{
+            writer.finish();
+            return true;
+        }catch(IOException e){
+            return false;
+        }
+    }
+
+    /**
+     * Wait for pending pipelined writes
+     * @return sequence number of the last chunk written, -1 if none
+     */
+    public long drainAsyncWriter() throws IOException {
+        JnomicsAsyncWriter writer;
+        synchronized (this){
+            writer = asyncWriter;
+        }
+        if(null == writer)
+            return -1;
+        try{
+            return writer.drain();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for writes to finish");
+        }
+    }
+
+    /**
+     * Finish pipelined writes, close the open stream and release the
+     * filesystem behind it. A failed pipelined write is rethrown after
+     * everything is closed
+     */
+    public void close() throws IOException {
+        IOException writeError = null;
+        JnomicsAsyncWriter writer;
+        synchronized (this){
+            writer = asyncWriter;
+            asyncWriter = null;
+        }
+        if(null != writer){
+            try{
+                writer.finish();
+            }catch(IOException e){
+                writeError = e;
+            }
+        }
+        try{
+            if(outStream != null){
+                outStream.close();
+            }else if(inStream != null){
+                inStream.close();
+            }
+        }finally{
+            fileSystem.close();
+        }
+        if(null != writeError)
+            throw writeError;
+    }
+
+    /**
+     * Compare a session key from a client with this handle's, in time
+     * independent of where they differ
+     */
+    public boolean checkSession(String key){
+        if(null == key || key.length() != SESSION_BYTES * 2)
+            return false;
+        byte[] given = new byte[SESSION_BYTES];
+        try{
+            for(int i = 0; i < SESSION_BYTES; i++)
+                given[i] = (byte)Integer.parseInt(key.substring(2 * i, 2 * i + 2), 16);
+        }catch(NumberFormatException e){
+            return false;
+        }
+        return MessageDigest.isEqual(session, given);
+    }
+
+    public String getSession() {
+        StringBuilder sb = new StringBuilder(SESSION_BYTES * 2);
+        for(byte b : session)
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
     public FileSystem getFileSystem() {
         return fileSystem;
     }
@@ -58,6 +186,14 @@ public class JnomicsFsHandle{
         this.inStream = inStream;
     }
 
+    public JnomicsFrameCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(JnomicsFrameCodec codec) {
+        this.codec = codec;
+    }
+
     public long getLastUsed() {
         return lastUsed;
     }
@@ -65,4 +201,4 @@ public class JnomicsFsHandle{
     public void setLastUsed(long lastUsed) {
         this.lastUsed = lastUsed;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * Hadoop configuration the compute server builds its jobs from.
+ *
+ * The site files named by core-site-xml, mapred-site-xml and hdfs-site-xml
+ * are parsed once into a base configuration that is never handed out.
+ * Each caller gets a copy of it, which only clones the parsed properties.
+ * The files are checked for changes at most every CHECK_INTERVAL and the
+ * base is parsed again when one of them was modified.
+ */
+public class JnomicsHadoopConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsHadoopConfiguration.class);
+
+    private static final long CHECK_INTERVAL = 5 * 1000;
+    private static final String[] SITE_FILES = {"core-site-xml", "mapred-site-xml", "hdfs-site-xml"};
+
+    private final Properties properties;
+    private final File[] siteFiles;
+
+    private volatile Configuration base;
+    private long[] loadedModified;
+    private volatile long lastCheck = 0;
+
+    public JnomicsHadoopConfiguration(Properties properties){
+        this.properties = properties;
+        siteFiles = new File[SITE_FILES.length];
+        for(int i = 0; i < SITE_FILES.length; i++)
+            siteFiles[i] = new File(properties.getProperty(SITE_FILES[i]));
+        base = load();
+    }
+
+    /**
+     * A configuration of its own for the caller to modify
+     */
+    public Configuration get(){
+        long now = System.currentTimeMillis();
+        if(now - lastCheck > CHECK_INTERVAL)
+            reloadIfModified(now);
+        return new Configuration(base);
+    }
+
+    private synchronized void reloadIfModified(long now){
+        if(now - lastCheck <= CHECK_INTERVAL)
+            return;
+        lastCheck = now;
+        for(int i = 0; i < siteFiles.length; i++){
+            if(siteFiles[i].lastModified() != loadedModified[i]){
+                log.info("Hadoop site file " + siteFiles[i] + " changed, reloading configuration");
+                base = load();
+                return;
+            }
+        }
+    }
+
+    private Configuration load(){
+        long[] modified = new long[siteFiles.length];
+        Configuration conf = new Configuration();
+        //if you don't give Path's it will not load the files
+        for(int i = 0; i < siteFiles.length; i++){
+            modified[i] = siteFiles[i].lastModified();
+            conf.addResource(new Path(siteFiles[i].getPath()));
+        }
+        conf.set("fs.default.name", properties.getProperty("hdfs-default-name"));
+        conf.set("mapred.jar", properties.getProperty("jnomics-jar-path"));
+        conf.set("grid-script-path", properties.getProperty("grid-script-path"));
+        conf.set("grid-job-slots", properties.getProperty("grid-job-slots"));
+        //parse the files now, copies share the parsed properties instead of reading them again
+        conf.get("fs.default.name");
+        loadedModified = modified;
+        return conf;
+    }
+}
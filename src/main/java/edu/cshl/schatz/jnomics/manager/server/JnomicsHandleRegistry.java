@@ -0,0 +1,174 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open file handles of the data server.
+ *
+ * Every handle holds a lease that is renewed each time the handle is
+ * looked up. Leases are tracked on a hashed timer wheel: a handle sits in
+ * the bucket of the tick its lease runs out on, and each tick only visits
+ * that one bucket. Renewing a lease just moves the handle's timestamp; a
+ * handle found renewed when its bucket comes up is pushed forward to the
+ * bucket of its new deadline instead of being closed.
+ */
+public class JnomicsHandleRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsHandleRegistry.class);
+
+    private static final long TICK_MS = 1000;
+    private static final int WHEEL_SIZE = 512;
+    private static final long DEFAULT_LEASE_MS = 60 * 1000 * 4;
+    private static final int DEFAULT_MAX_HANDLES_PER_USER = 256;
+
+    private final ConcurrentMap<UUID, JnomicsFsHandle> handles = new ConcurrentHashMap<UUID, JnomicsFsHandle>();
+    private final ConcurrentMap<String, AtomicInteger> userCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final List<Set<UUID>> wheel = new ArrayList<Set<UUID>>(WHEEL_SIZE);
+
+    private final long leaseMs;
+    private final int maxHandlesPerUser;
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /** last tick processed, only touched by the expiring thread **/
+    private long lastTick;
+
+    public JnomicsHandleRegistry(Properties properties){
+        leaseMs = Long.parseLong(properties.getProperty("data-handle-lease-ms",
+                Long.toString(DEFAULT_LEASE_MS)));
+        maxHandlesPerUser = Integer.parseInt(properties.getProperty("data-max-handles-per-user",
+                Integer.toString(DEFAULT_MAX_HANDLES_PER_USER)));
+        for(int i = 0; i < WHEEL_SIZE; i++){
+            wheel.add(Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>()));
+        }
+        lastTick = System.currentTimeMillis() / TICK_MS;
+    }
+
+    /**
+     * Add a handle to the table and start its lease
+     * @return the id the client refers to the handle by
+     * @throws JnomicsThriftException if the owner has too many open handles
+     */
+    public UUID register(JnomicsFsHandle handle) throws JnomicsThriftException {
+        AtomicInteger count = userCounts.get(handle.getOwner());
+        if(null == count){
+            AtomicInteger newCount = new AtomicInteger();
+            count = userCounts.putIfAbsent(handle.getOwner(), newCount);
+            if(null == count)
+                count = newCount;
+        }
+        if(count.incrementAndGet() > maxHandlesPerUser){
+            count.decrementAndGet();
+            throw new JnomicsThriftException("Too many open handles for user " + handle.getOwner() +
+                    " (limit " + maxHandlesPerUser + ")");
+        }
+
+        UUID uuid;
+        while(null != handles.putIfAbsent(uuid = UUID.randomUUID(), handle)){}
+        handle.updateLastUsed();
+        schedule(uuid, handle);
+        return uuid;
+    }
+
+    /**
+     * Look up a handle and renew its lease
+     * @return the handle, null if it was closed or has expired
+     */
+    public JnomicsFsHandle get(UUID uuid){
+        JnomicsFsHandle handle = handles.get(uuid);
+        if(null != handle)
+            handle.updateLastUsed();
+        return handle;
+    }
+
+    /**
+     * Whether a handle is still open, without renewing its lease
+     */
+    public boolean contains(UUID uuid){
+        return handles.containsKey(uuid);
+    }
+
+    /**
+     * Remove a handle from the table, the caller becomes responsible for closing it
+     * @return the handle, null if it was already removed
+     */
+    public JnomicsFsHandle remove(UUID uuid){
+        JnomicsFsHandle handle = handles.remove(uuid);
+        if(null != handle)
+            release(handle);
+        return handle;
+    }
+
+    /**
+     * Advance the wheel to the current time, closing every handle whose lease ran out
+     * @return number of handles expired
+     */
+    public int expire(){
+        long now = System.currentTimeMillis();
+        long currentTick = now / TICK_MS;
+        int count = 0;
+        for(long tick = lastTick + 1; tick <= currentTick; tick++){
+            Set<UUID> bucket = wheel.get((int)(tick % WHEEL_SIZE));
+            if(bucket.isEmpty())
+                continue;
+            List<UUID> due = new ArrayList<UUID>(bucket);
+            bucket.removeAll(due);
+            for(UUID uuid : due){
+                JnomicsFsHandle handle = handles.get(uuid);
+                if(null == handle)
+                    continue;
+                if(now - handle.getLastUsed() < leaseMs){
+                    schedule(uuid, handle);
+                }else if(handles.remove(uuid, handle)){
+                    release(handle);
+                    try{
+                        handle.close();
+                    }catch(IOException e){
+                        log.warn("Problem closing expired handle " + uuid + ": " + e.toString());
+                    }
+                    expiredCount.incrementAndGet();
+                    count++;
+                }
+            }
+        }
+        lastTick = currentTick;
+        return count;
+    }
+
+    public long getTickMillis(){
+        return TICK_MS;
+    }
+
+    public int getLiveCount(){
+        return handles.size();
+    }
+
+    public long getExpiredCount(){
+        return expiredCount.get();
+    }
+
+    private void schedule(UUID uuid, JnomicsFsHandle handle){
+        long deadlineTick = (handle.getLastUsed() + leaseMs) / TICK_MS + 1;
+        wheel.get((int)(deadlineTick % WHEEL_SIZE)).add(uuid);
+    }
+
+    private void release(JnomicsFsHandle handle){
+        AtomicInteger count = userCounts.get(handle.getOwner());
+        if(null != count)
+            count.decrementAndGet();
+    }
+}
@@ -0,0 +1,223 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JobClients of the compute server, one per user and jobtracker.
+ *
+ * A JobClient holds an ipc connection to the jobtracker for the user it
+ * was created as. Requests for the same user share one, together with the
+ * UserGroupInformation it was made for, so status polling does not open
+ * and drop a connection per call. A client that has not been used
+ * successfully for CHECK_INTERVAL is asked for the cluster status before
+ * it is handed out again, and replaced if that fails. Clients that nobody
+ * has used for IDLE_TIMEOUT are closed.
+ */
+public class JnomicsJobClientPool {
+
+	private static final org.slf4j.Logger log = LoggerFactory.getLogger(JnomicsJobClientPool.class);
+
+	private static final long IDLE_TIMEOUT = 60 * 1000 * 10;
+	private static final long SWEEP_INTERVAL = 60 * 1000;
+	private static final long CHECK_INTERVAL = 60 * 1000;
+
+	private static final ConcurrentMap<String, PooledEntry> pool = new ConcurrentHashMap<String, PooledEntry>();
+
+	static {
+		ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jnomics-jobclient-pool-sweeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweepIdle();
+			}
+		}, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/** One shared JobClient and the number of callers currently using it **/
+	private static class PooledEntry {
+		private final UserGroupInformation ugi;
+		private final JobClient client;
+		private int refs = 0;
+		private long lastReleased = System.currentTimeMillis();
+		private long lastHealthy = System.currentTimeMillis();
+		private boolean closed = false;
+
+		PooledEntry(UserGroupInformation ugi, JobClient client){
+			this.ugi = ugi;
+			this.client = client;
+		}
+
+		synchronized boolean acquire(){
+			if(closed)
+				return false;
+			refs++;
+			return true;
+		}
+
+		/** @return true if the client was invalidated and this was its last user **/
+		synchronized boolean release(boolean healthy){
+			refs--;
+			lastReleased = System.currentTimeMillis();
+			if(healthy)
+				lastHealthy = lastReleased;
+			return closed && 0 == refs;
+		}
+
+		synchronized boolean needsCheck(long now){
+			return now - lastHealthy > CHECK_INTERVAL;
+		}
+
+		/** @return true if nobody is using the client and it can be closed now **/
+		synchronized boolean invalidate(){
+			closed = true;
+			return 0 == refs;
+		}
+
+		synchronized boolean closeIfIdle(long now){
+			if(closed || refs > 0 || now - lastReleased < IDLE_TIMEOUT)
+				return false;
+			closed = true;
+			return true;
+		}
+	}
+
+	/** A JobClient on loan, release() gives it back **/
+	public static class Lease {
+		private final String key;
+		private final PooledEntry entry;
+		private boolean released = false;
+
+		Lease(String key, PooledEntry entry){
+			this.key = key;
+			this.entry = entry;
+		}
+
+		public JobClient getJobClient(){
+			return entry.client;
+		}
+
+		public UserGroupInformation getUgi(){
+			return entry.ugi;
+		}
+
+		/**
+		 * @param healthy false if the connection to the jobtracker failed,
+		 *                the client is replaced for the next caller
+		 */
+		public void release(boolean healthy){
+			if(released)
+				return;
+			released = true;
+			if(!healthy)
+				invalidate(key, entry);
+			if(entry.release(healthy))
+				closeQuietly(entry.client);
+		}
+	}
+
+	/**
+	 * The pooled JobClient of a user for the jobtracker set in conf, created
+	 * from conf if there is none
+	 */
+	public static Lease acquire(String username, JobConf conf) throws JnomicsThriftException {
+		String key = username + "@" + conf.get("mapred.job.tracker");
+		while(true){
+			PooledEntry entry = pool.get(key);
+			if(null == entry){
+				entry = create(username, conf);
+				PooledEntry existing = pool.putIfAbsent(key, entry);
+				if(null != existing){
+					closeQuietly(entry.client);
+					entry = existing;
+				}
+			}
+			if(!entry.acquire()){
+				//lost a race with the sweeper or a failed caller, it is closing this one
+				pool.remove(key, entry);
+				continue;
+			}
+			Lease lease = new Lease(key, entry);
+			if(entry.needsCheck(System.currentTimeMillis()) && !isHealthy(entry)){
+				log.info("Replacing job client of " + key + ", the jobtracker did not answer");
+				lease.release(false);
+				continue;
+			}
+			return lease;
+		}
+	}
+
+	private static PooledEntry create(String username, final JobConf conf) throws JnomicsThriftException {
+		UserGroupInformation ugi = UserGroupInformation.createRemoteUser(username);
+		try{
+			JobClient client = ugi.doAs(new PrivilegedExceptionAction<JobClient>() {
+				@Override
+				public JobClient run() throws Exception {
+					return new JobClient(new JobConf(conf));
+				}
+			});
+			return new PooledEntry(ugi, client);
+		}catch(Exception e){
+			log.error("Problem creating job client for " + username);
+			throw new JnomicsThriftException(e.toString());
+		}
+	}
+
+	private static boolean isHealthy(final PooledEntry entry){
+		try{
+			entry.ugi.doAs(new PrivilegedExceptionAction<Object>() {
+				@Override
+				public Object run() throws Exception {
+					return entry.client.getClusterStatus();
+				}
+			});
+			return true;
+		}catch(Exception e){
+			return false;
+		}
+	}
+
+	private static void invalidate(String key, PooledEntry entry){
+		pool.remove(key, entry);
+		entry.invalidate();
+	}
+
+	private static void sweepIdle(){
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, PooledEntry> e : pool.entrySet()){
+			if(e.getValue().closeIfIdle(now)){
+				pool.remove(e.getKey(), e.getValue());
+				closeQuietly(e.getValue().client);
+				log.info("Closed idle job client for " + e.getKey());
+			}
+		}
+	}
+
+	private static void closeQuietly(JobClient client){
+		try{
+			client.close();
+		}catch(IOException e){
+			log.warn("Problem closing job client: " + e.toString());
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftJobStatus;
+import org.apache.hadoop.mapred.JobStatus;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Status of every job on the jobtracker, indexed by user and by job id.
+ *
+ * One thread asks the jobtracker for all jobs every
+ * compute-job-index-refresh-ms and swaps in a new snapshot, so listing a
+ * user's jobs or looking one up costs a map lookup instead of moving
+ * every status on the cluster. A snapshot older than
+ * compute-job-index-max-stale-ms is not used, callers then ask the
+ * jobtracker themselves as before. Submitting a job wakes the thread so
+ * the new job shows up quickly.
+ */
+public class JnomicsJobStatusIndex implements Runnable {
+
+    private final org.slf4j.Logger log = LoggerFactory.getLogger(JnomicsJobStatusIndex.class);
+
+    private static final String DEFAULT_USER = "hdfs";
+    private static final long DEFAULT_REFRESH_MS = 5 * 1000;
+    private static final long DEFAULT_MAX_STALE_MS = 30 * 1000;
+
+    private static class Snapshot {
+        final Map<String, List<JnomicsThriftJobStatus>> byUser;
+        final Map<String, JnomicsThriftJobStatus> byId;
+        final long taken;
+
+        Snapshot(Map<String, List<JnomicsThriftJobStatus>> byUser, Map<String, JnomicsThriftJobStatus> byId,
+                 long taken){
+            this.byUser = byUser;
+            this.byId = byId;
+            this.taken = taken;
+        }
+    }
+
+    private final Properties properties;
+    private final JnomicsHadoopConfiguration hadoopConf;
+    private final String user;
+    private final long refreshMs;
+    private final long maxStaleMs;
+    private final Object wakeup = new Object();
+    private boolean refreshRequested = false;
+
+    private volatile Snapshot snapshot = null;
+
+    public JnomicsJobStatusIndex(Properties properties, JnomicsHadoopConfiguration hadoopConf){
+        this.properties = properties;
+        this.hadoopConf = hadoopConf;
+        user = properties.getProperty("compute-job-index-user", DEFAULT_USER);
+        refreshMs = Long.parseLong(properties.getProperty("compute-job-index-refresh-ms",
+                Long.toString(DEFAULT_REFRESH_MS)));
+        maxStaleMs = Long.parseLong(properties.getProperty("compute-job-index-max-stale-ms",
+                Long.toString(DEFAULT_MAX_STALE_MS)));
+    }
+
+    public void start(){
+        Thread t = new Thread(this, "jnomics-job-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted()){
+            try{
+                refresh();
+            }catch(Exception e){
+                log.warn("Problem refreshing job status index: " + e.toString());
+            }
+            synchronized (wakeup){
+                try{
+                    if(!refreshRequested)
+                        wakeup.wait(refreshMs);
+                }catch(InterruptedException e){
+                    return;
+                }
+                refreshRequested = false;
+            }
+        }
+    }
+
+    /**
+     * Have the index refreshed now instead of at the next interval
+     */
+    public void requestRefresh(){
+        synchronized (wakeup){
+            refreshRequested = true;
+            wakeup.notifyAll();
+        }
+    }
+
+    /**
+     * @return jobs of username, null if the index is too stale to answer
+     */
+    public List<JnomicsThriftJobStatus> getJobs(String username){
+        Snapshot current = fresh();
+        if(null == current)
+            return null;
+        List<JnomicsThriftJobStatus> jobs = current.byUser.get(username);
+        if(null == jobs)
+            return new ArrayList<JnomicsThriftJobStatus>();
+        return new ArrayList<JnomicsThriftJobStatus>(jobs);
+    }
+
+    /**
+     * @return status of the job, null if it is not in the index or the index is too stale
+     */
+    public JnomicsThriftJobStatus getJob(String jobId){
+        Snapshot current = fresh();
+        return null == current ? null : current.byId.get(jobId);
+    }
+
+    private Snapshot fresh(){
+        Snapshot current = snapshot;
+        if(null == current || System.currentTimeMillis() - current.taken > maxStaleMs)
+            return null;
+        return current;
+    }
+
+    private void refresh() throws Exception {
+        long taken = System.currentTimeMillis();
+        JobStatus[] statuses = new JobClientRunner<JobStatus[]>(user, hadoopConf.get(), properties){
+            @Override
+            public JobStatus[] jobClientTask() throws Exception {
+                return getJobClient().getAllJobs();
+            }
+        }.run();
+
+        Map<String, List<JnomicsThriftJobStatus>> byUser = new HashMap<String, List<JnomicsThriftJobStatus>>();
+        Map<String, JnomicsThriftJobStatus> byId = new HashMap<String, JnomicsThriftJobStatus>();
+        for(JobStatus stat : statuses){
+            JnomicsThriftJobStatus status = toThriftStatus(stat);
+            List<JnomicsThriftJobStatus> jobs = byUser.get(stat.getUsername());
+            if(null == jobs){
+                jobs = new ArrayList<JnomicsThriftJobStatus>();
+                byUser.put(stat.getUsername(), jobs);
+            }
+            jobs.add(status);
+            byId.put(status.getJob_id(), status);
+        }
+        for(Map.Entry<String, List<JnomicsThriftJobStatus>> e : byUser.entrySet())
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        snapshot = new Snapshot(byUser, byId, taken);
+    }
+
+    public static JnomicsThriftJobStatus toThriftStatus(JobStatus stat){
+        return new JnomicsThriftJobStatus(stat.getJobID().toString(),
+                stat.getUsername(),
+                stat.getFailureInfo(),
+                stat.isJobComplete(),
+                stat.getRunState(),
+                stat.getStartTime(),
+                stat.getJobPriority().toString(),
+                stat.mapProgress(),
+                stat.reduceProgress());
+    }
+}
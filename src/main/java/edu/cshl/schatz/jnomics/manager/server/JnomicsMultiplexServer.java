@@ -0,0 +1,43 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.client.old.JnomicsThriftClient;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsApiConfig;
+import org.apache.thrift.TMultiplexedProcessor;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Serves JnomicsData and JnomicsCompute from one process on one port.
+ * Clients configured with multiplex-server-host/port reach both services
+ * over a single connection, calls name their service with
+ * TMultiplexedProtocol. The separate data and compute servers keep
+ * working for clients that are not configured for it.
+ */
+public class JnomicsMultiplexServer {
+
+    private static int DEFAULTPORT = 10002;
+
+    public static void main(String []args) throws TTransportException, IOException {
+
+        Properties prop = JnomicsApiConfig.getServerProperties();
+
+        JnomicsDataHandler dataHandler = new JnomicsDataHandler(prop);
+        Thread garbageCollectorThread = new Thread(new JnomicsHandleGarbageCollector(dataHandler));
+        JnomicsComputeHandler computeHandler = new JnomicsComputeHandler(prop);
+
+        TMultiplexedProcessor processor = new TMultiplexedProcessor();
+        processor.registerProcessor(JnomicsThriftClient.DATA_SERVICE,
+                new JnomicsDataServer.JnomicsDataProcessorHax(dataHandler));
+        processor.registerProcessor(JnomicsThriftClient.COMPUTE_SERVICE,
+                new JnomicsComputeServer.JnomicsComputeProcessorHax(computeHandler));
+
+        TServer server = JnomicsServerFactory.create(prop, "multiplex", DEFAULTPORT, processor);
+
+        garbageCollectorThread.start();
+        server.serve();
+        garbageCollectorThread.interrupt();
+    }
+}
@@ -0,0 +1,143 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Lets clients pick binary or compact protocol, framed or unframed, on
+ * the same port. Clients choose with <service>-server-protocol and
+ * <service>-server-framed, clients that set neither (every older client)
+ * speak unframed binary as before.
+ *
+ * Binary messages start with 0x80 and compact ones with 0x82, a frame
+ * starts with its length whose high byte is 0 for any frame we accept.
+ * On a threaded server the first bytes of a connection are read ahead to
+ * decide, the protocols built then serve the rest of the connection from
+ * the worker thread that owns it. Selector servers hand every request over
+ * as a frame in memory and collect the reply in a separate buffer, so the
+ * first byte of each frame is checked and replies go to the output
+ * transport the server gave us, they are always framed.
+ */
+public class JnomicsProtocolNegotiator implements TProcessor {
+
+    private static final int COMPACT_PROTOCOL_ID = 0x82;
+
+    private static class Negotiated {
+        final TTransport raw;
+        final TProtocol in;
+        final TProtocol out;
+
+        Negotiated(TTransport raw, TProtocol in, TProtocol out){
+            this.raw = raw;
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    /** threaded servers run each connection start to end on one worker thread **/
+    private final ThreadLocal<Negotiated> connection = new ThreadLocal<Negotiated>();
+
+    private final TProcessor processor;
+
+    public JnomicsProtocolNegotiator(TProcessor processor){
+        this.processor = processor;
+    }
+
+    @Override
+    public boolean process(TProtocol in, TProtocol out) throws TException {
+        TTransport raw = in.getTransport();
+        if(raw instanceof TFramedTransport){
+            //a request frame from the selector server, an empty read loads it without consuming any of it
+            if(raw.getBytesRemainingInBuffer() <= 0)
+                raw.read(new byte[0], 0, 0);
+            if(raw.getBytesRemainingInBuffer() > 0
+                    && COMPACT_PROTOCOL_ID == (raw.getBuffer()[raw.getBufferPosition()] & 0xff))
+                return processor.process(new TCompactProtocol(raw), new TCompactProtocol(out.getTransport()));
+            return processor.process(new TBinaryProtocol(raw), new TBinaryProtocol(out.getTransport()));
+        }
+        Negotiated negotiated = connection.get();
+        if(null == negotiated || negotiated.raw != raw){
+            negotiated = negotiate(raw, out.getTransport());
+            connection.set(negotiated);
+        }
+        return processor.process(negotiated.in, negotiated.out);
+    }
+
+    private Negotiated negotiate(TTransport raw, TTransport rawOut) throws TTransportException {
+        byte[] head = new byte[5];
+        int len = 1;
+        raw.readAll(head, 0, 1);
+        boolean framed = 0 == head[0];
+        if(framed){
+            raw.readAll(head, 1, 4);
+            len = 5;
+        }
+        boolean compact = COMPACT_PROTOCOL_ID == (head[len - 1] & 0xff);
+
+        TTransport input = new ReplayTransport(raw, head, len);
+        TTransport output = rawOut;
+        if(framed){
+            input = new TFramedTransport(input);
+            output = new TFramedTransport(output);
+        }
+        if(raw instanceof TSocket){
+            System.err.println("Connection from " + ((TSocket)raw).getSocket().getInetAddress() + " speaking "
+                    + (compact ? "compact" : "binary") + (framed ? " framed" : ""));
+        }
+        if(compact)
+            return new Negotiated(raw, new TCompactProtocol(input), new TCompactProtocol(output));
+        return new Negotiated(raw, new TBinaryProtocol(input), new TBinaryProtocol(output));
+    }
+
+    /** gives back the bytes read to negotiate before reading on from the connection, input only **/
+    private static class ReplayTransport extends TTransport {
+        private final TTransport transport;
+        private final byte[] head;
+        private final int headLen;
+        private int headPos = 0;
+
+        ReplayTransport(TTransport transport, byte[] head, int headLen){
+            this.transport = transport;
+            this.head = head;
+            this.headLen = headLen;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return transport.isOpen();
+        }
+
+        @Override
+        public void open() throws TTransportException {
+            transport.open();
+        }
+
+        @Override
+        public void close() {
+            transport.close();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws TTransportException {
+            if(headPos < headLen){
+                int n = Math.min(len, headLen - headPos);
+                System.arraycopy(head, headPos, buf, off, n);
+                headPos += n;
+                return n;
+            }
+            return transport.read(buf, off, len);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws TTransportException {
+            throw new TTransportException("Replies go to the output transport");
+        }
+    }
+}
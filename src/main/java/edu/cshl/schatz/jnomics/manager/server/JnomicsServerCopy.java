@@ -0,0 +1,105 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Copies files inside hdfs without the data leaving the data server.
+ *
+ * Hdfs files have a single writer and this hdfs has no concat, so the
+ * destination is always written front to back. The sources are read as
+ * fixed size ranges with positioned reads on a shared pool, several
+ * ranges ahead of the writer, so reading from one set of datanodes
+ * overlaps writing to another. Sources are streamed one after another,
+ * which makes concatenating job part files a single pass.
+ */
+public class JnomicsServerCopy {
+
+    private final ExecutorService readers;
+    private final int rangeSize;
+    private final int readAhead;
+
+    public JnomicsServerCopy(ExecutorService readers, int rangeSize, int readAhead){
+        this.readers = readers;
+        this.rangeSize = rangeSize;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Write the sources, in order, into dest. Creating dest truncates it
+     * before any source is read, so dest may not be one of the sources
+     * @return bytes written
+     */
+    public long copy(FileSystem fs, List<Path> sources, Path dest) throws IOException {
+        Path qualifiedDest = fs.makeQualified(dest);
+        for(Path src : sources){
+            if(fs.getFileStatus(src).isDir())
+                throw new IOException("Not a file: " + src);
+            if(fs.makeQualified(src).equals(qualifiedDest))
+                throw new IOException("Destination is also a source: " + dest);
+        }
+        FSDataOutputStream out = fs.create(dest);
+        long total = 0;
+        try{
+            for(Path src : sources){
+                total += copyInto(fs, src, out);
+            }
+        }finally{
+            out.close();
+        }
+        return total;
+    }
+
+    private long copyInto(FileSystem fs, Path src, FSDataOutputStream out) throws IOException {
+        FileStatus stat = fs.getFileStatus(src);
+        final long length = stat.getLen();
+        final FSDataInputStream in = fs.open(src);
+        LinkedList<Future<byte[]>> window = new LinkedList<Future<byte[]>>();
+        try{
+            long next = 0;
+            long written = 0;
+            while(written < length){
+                while(next < length && window.size() < readAhead){
+                    final long offset = next;
+                    final int size = (int)Math.min(rangeSize, length - offset);
+                    window.add(readers.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            byte[] buf = new byte[size];
+                            in.readFully(offset, buf);
+                            return buf;
+                        }
+                    }));
+                    next += size;
+                }
+                byte[] range = window.removeFirst().get();
+                out.write(range);
+                written += range.length;
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted copying " + src);
+        }catch(ExecutionException e){
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }finally{
+            for(Future<byte[]> f : window){
+                f.cancel(true);
+            }
+            in.close();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,89 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSSLTransportFactory;
+import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+
+/**
+ * Builds the thrift server for the data and compute services.
+ *
+ * <service>-server-mode picks how connections are served:
+ *
+ * threaded (default) - TThreadPoolServer on an ssl socket, one thread per
+ * open connection.
+ *
+ * selector - TThreadedSelectorServer. A few selector threads own every
+ * connection and only hand complete requests to a bounded worker pool, so
+ * idle clients cost a socket and no thread. A connection has at most one
+ * request in flight and reading stops once the buffered requests of all
+ * connections reach the read buffer limit, which holds back fast senders.
+ * This server speaks plain framed thrift on the selector address, tls is
+ * terminated in front of it (stunnel, haproxy) on the public port and
+ * clients set <service>-server-framed=true.
+ *
+ * In both modes the protocol of each client is detected, see
+ * JnomicsProtocolNegotiator.
+ */
+public class JnomicsServerFactory {
+
+    public static TServer create(Properties prop, String service, int defaultPort, TProcessor processor)
+            throws TTransportException, IOException {
+        String mode = prop.getProperty(service + "-server-mode", "threaded");
+        processor = new JnomicsProtocolNegotiator(processor);
+        if("selector".equals(mode)){
+            return createSelector(prop, service, processor);
+        }else if("threaded".equals(mode)){
+            return createThreaded(prop, service, defaultPort, processor);
+        }
+        throw new IOException("Unknown " + service + "-server-mode: " + mode);
+    }
+
+    private static TServer createThreaded(Properties prop, String service, int defaultPort, TProcessor processor)
+            throws TTransportException, IOException {
+        int port = Integer.parseInt(prop.getProperty(service + "-server-port", Integer.toString(defaultPort)));
+        String host = prop.getProperty(service + "-server-host");
+        String keyStore = System.getProperty("jkserver_keystore");
+        if(null == keyStore || !new File(keyStore).exists()){
+            throw new IOException("Cannot find key store: " + keyStore);
+        }
+
+        TSSLTransportFactory.TSSLTransportParameters params = new TSSLTransportFactory.TSSLTransportParameters();
+        params.setKeyStore(keyStore,"kbasekeystore");
+        TServerTransport serverTransport = TSSLTransportFactory.getServerSocket(port,10000,
+                InetAddress.getByName(host),params);
+
+        System.out.println("Starting threaded server port "+ port +"...");
+        return new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport).processor(processor));
+    }
+
+    private static TServer createSelector(Properties prop, String service, TProcessor processor)
+            throws TTransportException, IOException {
+        String address = prop.getProperty(service + "-server-selector-address");
+        if(null == address || !address.contains(":"))
+            throw new IOException("selector mode needs " + service + "-server-selector-address=<host>:<port>");
+        int colon = address.lastIndexOf(':');
+        InetSocketAddress bind = new InetSocketAddress(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)));
+
+        TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(new TNonblockingServerSocket(bind, 10000))
+                .selectorThreads(Integer.parseInt(prop.getProperty(service + "-server-selector-threads", "2")))
+                .workerThreads(Integer.parseInt(prop.getProperty(service + "-server-worker-threads", "32")))
+                .acceptPolicy(TThreadedSelectorServer.Args.AcceptPolicy.FAST_ACCEPT);
+        args.maxReadBufferBytes = Long.parseLong(prop.getProperty(service + "-server-max-read-buffer-mb", "256")) << 20;
+        args.processor(processor);
+
+        System.out.println("Starting selector server on "+ bind +"...");
+        return new TThreadedSelectorServer(args);
+    }
+}
@@ -2,26 +2,48 @@ package edu.cshl.schatz.jnomics.manager.server;
 
 import edu.cshl.schatz.jnomics.authentication.KBaseAuthValidateToken;
 import edu.cshl.schatz.jnomics.manager.api.Authentication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User: james
  * Provides caching mechanism so globus service is not overloaded
+ *
+ * Every thrift worker thread authenticates through here. The first request
+ * with a token verifies it, requests with the same token arriving meanwhile
+ * wait for that one verification instead of starting their own. Good tokens
+ * are trusted until the expiry written in the token, bad tokens are
+ * remembered for a minute so a misbehaving client can not hammer the auth
+ * service. Verifications that fail with an error (auth service down) are not
+ * remembered.
  */
 public class JnomicsServiceAuthentication {
 
+    private static final Logger log = LoggerFactory.getLogger(JnomicsServiceAuthentication.class);
+
+    /** used when a token carries no expiry **/
+    private static final long DEFAULT_TTL = 60 * 1000 * 10;
+    private static final long NEGATIVE_TTL = 60 * 1000;
+    private static final long REPORT_INTERVAL = 60 * 1000 * 5;
+    private static final int SWEEP_INTERVAL = 1000;
+
     private static class AuthContainer {
-        private static int TIMEOUT = 60* 1000 * 10;
-        private String username;
-        private long expire;
+        private final String username;
+        private final long expire;
 
-        public AuthContainer(String username){
+        public AuthContainer(String username, long expire){
             this.username = username;
-            expire = System.currentTimeMillis() + TIMEOUT;
+            this.expire = expire;
         }
-        
+
         public String getUsername() {
             return username;
         }
@@ -31,8 +53,15 @@ public class JnomicsServiceAuthentication {
         }
     }
 
-    //key: kbase token, value: authentication session metadata
-    private Map<String, AuthContainer> tokenCache = new HashMap<String, AuthContainer>();
+    //key: kbase token, value: authentication session metadata, loaded once
+    private final ConcurrentMap<String, FutureTask<AuthContainer>> tokenCache =
+            new ConcurrentHashMap<String, FutureTask<AuthContainer>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
 
     /**
      *
@@ -41,28 +70,105 @@ public class JnomicsServiceAuthentication {
      * @return The username if authenticated, null if authentication fails
      */
     public String authenticate(Authentication auth){
-        String token = auth.getToken();
-        AuthContainer container;
-        if(null != token){
-            if(tokenCache.containsKey(token)){
-                container = tokenCache.get(token);
-                if(!container.isExpired())
-                    return tokenCache.get(token).getUsername();
-                else
-                    tokenCache.remove(token);
-            }
-            try {
-                if(KBaseAuthValidateToken.verify(token)){
-                    String username = KBaseAuthValidateToken.getUserName(token);
-                    if(null != username){
-                        tokenCache.put(token,new AuthContainer(username));
-                        return username;
+        final String token = auth.getToken();
+        if(null == token)
+            return null;
+        report();
+        while(true){
+            FutureTask<AuthContainer> task = tokenCache.get(token);
+            boolean loader = false;
+            if(null == task){
+                FutureTask<AuthContainer> created = new FutureTask<AuthContainer>(new Callable<AuthContainer>() {
+                    @Override
+                    public AuthContainer call() throws Exception {
+                        return verify(token);
                     }
+                });
+                task = tokenCache.putIfAbsent(token, created);
+                if(null == task){
+                    task = created;
+                    loader = true;
+                    misses.incrementAndGet();
+                    task.run();
+                    if(0 == misses.get() % SWEEP_INTERVAL)
+                        sweep();
                 }
-            } catch (Exception e){
+            }
+            if(!loader)
+                hits.incrementAndGet();
+            AuthContainer container;
+            try{
+                container = task.get();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
                 return null;
+            }catch(ExecutionException e){
+                //not cached, the next request tries the auth service again
+                tokenCache.remove(token, task);
+                log.error("Problem verifying token: " + e.getCause().toString());
+                return null;
+            }
+            if(container.isExpired()){
+                tokenCache.remove(token, task);
+                if(loader)
+                    return null;
+                continue;
             }
+            return container.getUsername();
         }
-        return null;
+    }
+
+    private AuthContainer verify(String token) throws Exception {
+        long start = System.nanoTime();
+        try{
+            long now = System.currentTimeMillis();
+            long expiry = KBaseAuthValidateToken.getExpiry(token);
+            if(-1 != expiry && expiry * 1000 <= now){
+                rejected.incrementAndGet();
+                return new AuthContainer(null, now + NEGATIVE_TTL);
+            }
+            String username = null;
+            if(KBaseAuthValidateToken.verify(token))
+                username = KBaseAuthValidateToken.getUserName(token);
+            if(null == username){
+                rejected.incrementAndGet();
+                return new AuthContainer(null, now + NEGATIVE_TTL);
+            }
+            return new AuthContainer(username, -1 == expiry ? now + DEFAULT_TTL : expiry * 1000);
+        }finally{
+            verifyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void sweep(){
+        for(Map.Entry<String, FutureTask<AuthContainer>> entry : tokenCache.entrySet()){
+            FutureTask<AuthContainer> task = entry.getValue();
+            if(!task.isDone())
+                continue;
+            try{
+                if(task.get().isExpired())
+                    tokenCache.remove(entry.getKey(), task);
+            }catch(Exception e){
+                tokenCache.remove(entry.getKey(), task);
+            }
+        }
+    }
+
+    private void report(){
+        long last = lastReport.get();
+        long now = System.currentTimeMillis();
+        if(now - last < REPORT_INTERVAL || !lastReport.compareAndSet(last, now))
+            return;
+        log.info(getStats());
+    }
+
+    /**
+     * Cache hits, verifications and their mean latency since start
+     */
+    public String getStats(){
+        long m = misses.get();
+        return "Token cache hits: " + hits.get() + " misses: " + m + " rejected: " + rejected.get()
+                + " cached: " + tokenCache.size()
+                + " mean verify ms: " + (0 == m ? 0 : verifyNanos.get() / m / 1000000.0);
     }
 }
@@ -0,0 +1,421 @@
+package edu.cshl.schatz.jnomics.manager.server;
+
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftHandle;
+import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftUploadStatus;
+import edu.cshl.schatz.jnomics.manager.common.JnomicsFrameCodec;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable upload sessions.
+ *
+ * A session is a staging directory in the user's home
+ * (.jnomics-uploads/<session id>) holding the destination path and one or
+ * more segment files named by the byte offset they start at. Data is
+ * written to the newest segment through an ordinary write handle. When the
+ * client reconnects it asks for the committed offset: if the segment handle
+ * is still live it is synced and handed back, otherwise (lease expired,
+ * server restarted) a new segment is started at the end of the data already
+ * in hdfs. Finishing renames a lone segment into place, or concatenates the
+ * segments when there is more than one.
+ *
+ * All state needed to resume lives in hdfs, the in memory map only
+ * remembers which handle is writing each session. Entries whose handle
+ * expired are dropped every minute, and staging directories of sessions
+ * nobody touched for data-upload-session-ttl-ms are deleted every hour.
+ */
+public class JnomicsUploadSessions {
+
+    private static final Logger log = LoggerFactory.getLogger(JnomicsUploadSessions.class);
+
+    private static final String STAGING_DIR = ".jnomics-uploads";
+    private static final String DEST_FILE = "_dest";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final long DEFAULT_SESSION_TTL_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final long ACTIVE_SWEEP_INTERVAL = 60 * 1000;
+    private static final long SESSION_SWEEP_INTERVAL = 60 * 60 * 1000;
+
+    /** The segment currently being written for a session **/
+    private static class ActiveSegment {
+        final UUID handle;
+        final long start;
+
+        ActiveSegment(UUID handle, long start){
+            this.handle = handle;
+            this.start = start;
+        }
+    }
+
+    private final Properties properties;
+    private final JnomicsHandleRegistry handles;
+    private final ConcurrentMap<String, ActiveSegment> active = new ConcurrentHashMap<String, ActiveSegment>();
+    private final long sessionTtlMs;
+
+    public JnomicsUploadSessions(Properties properties, JnomicsHandleRegistry handles){
+        this.properties = properties;
+        this.handles = handles;
+        sessionTtlMs = Long.parseLong(properties.getProperty("data-upload-session-ttl-ms",
+                Long.toString(DEFAULT_SESSION_TTL_MS)));
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "jnomics-upload-sweeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dropExpiredSegments();
+            }
+        }, ACTIVE_SWEEP_INTERVAL, ACTIVE_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                expireSessions();
+            }
+        }, SESSION_SWEEP_INTERVAL, SESSION_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a session that will be written to dest
+     * @return the session id
+     */
+    public String start(String username, String dest) throws JnomicsThriftException, IOException {
+        String id = UUID.randomUUID().toString();
+        FileSystem fs = JnomicsFileSystem.getFileSystem(properties, username);
+        try{
+            Path dir = sessionDir(fs, id);
+            fs.mkdirs(dir);
+            FSDataOutputStream out = fs.create(new Path(dir, DEST_FILE));
+            try{
+                out.writeUTF(fs.makeQualified(new Path(dest)).toUri().getPath());
+            }finally{
+                out.close();
+            }
+        }finally{
+            fs.close();
+        }
+        log.info("Started upload session " + id + " to " + dest + " for user " + username);
+        return id;
+    }
+
+    /**
+     * Get a write handle for the session positioned at the committed offset
+     */
+    public JnomicsThriftUploadStatus resume(String username, String id, JnomicsFrameCodec codec)
+            throws JnomicsThriftException, IOException {
+        checkId(id);
+        ActiveSegment segment = active.get(id);
+        if(null != segment){
+            JnomicsFsHandle jhandle = handles.get(segment.handle);
+            if(null != jhandle && !username.equals(jhandle.getOwner()))
+                throw new JnomicsThriftException("Permission Denied");
+            if(null != jhandle && !jhandle.resetAsyncWriter()){
+                //a pipelined write failed, the stream can't be trusted past what hdfs has
+                handles.remove(segment.handle);
+                try{
+                    jhandle.close();
+                }catch(IOException e){
+                    log.warn("Problem closing failed segment of session " + id + ": " + e.toString());
+                }
+                jhandle = null;
+            }
+            if(null != jhandle){
+                long offset;
+                //wait out a write that is still in progress from the dropped connection
+                synchronized (jhandle){
+                    jhandle.getOutStream().sync();
+                    offset = segment.start + jhandle.getOutStream().getPos();
+                    jhandle.setCodec(codec);
+                }
+                log.info("Resuming upload session " + id + " on live handle at " + offset);
+                return new JnomicsThriftUploadStatus(toThriftHandle(segment.handle, jhandle, codec), offset);
+            }
+            active.remove(id, segment);
+        }
+
+        FileSystem fs = JnomicsFileSystem.getFileSystem(properties, username);
+        boolean registered = false;
+        try{
+            Path dir = sessionDir(fs, id);
+            if(!fs.exists(new Path(dir, DEST_FILE)))
+                throw new JnomicsThriftException("Unknown upload session: " + id);
+            long offset = committedOffset(segments(fs, dir));
+            FSDataOutputStream out = fs.create(segmentPath(dir, offset), true);
+            JnomicsFsHandle jhandle = new JnomicsFsHandle(username, fs, out);
+            jhandle.setCodec(codec);
+            UUID uuid;
+            try{
+                uuid = handles.register(jhandle);
+            }catch(JnomicsThriftException e){
+                out.close();
+                throw e;
+            }
+            registered = true;
+            active.put(id, new ActiveSegment(uuid, offset));
+            log.info("Resuming upload session " + id + " with new segment at " + offset);
+            return new JnomicsThriftUploadStatus(toThriftHandle(uuid, jhandle, codec), offset);
+        }finally{
+            //once registered the handle owns the filesystem reference
+            if(!registered)
+                fs.close();
+        }
+    }
+
+    /**
+     * Close the session's segment and move the uploaded data to its destination
+     * @return the destination path
+     */
+    public String finish(String username, String id) throws JnomicsThriftException, IOException {
+        checkId(id);
+        closeActive(username, id);
+
+        FileSystem fs = JnomicsFileSystem.getFileSystem(properties, username);
+        try{
+            Path dir = sessionDir(fs, id);
+            Path dest = readDest(fs, dir);
+            FileStatus[] segments = segments(fs, dir);
+            if(fs.exists(dest)){
+                if(fs.getFileStatus(dest).isDir())
+                    throw new JnomicsThriftException("Upload destination is a directory: " + dest);
+                fs.delete(dest, false);
+            }
+            //rename does not create missing parents, create did
+            if(null != dest.getParent())
+                fs.mkdirs(dest.getParent());
+            if(1 == segments.length){
+                if(!fs.rename(segments[0].getPath(), dest))
+                    throw new IOException("Could not move upload into " + dest);
+            }else{
+                concat(fs, segments, dest);
+            }
+            fs.delete(dir, true);
+            log.info("Finished upload session " + id + " into " + dest + " for user " + username);
+            return dest.toString();
+        }finally{
+            fs.close();
+        }
+    }
+
+    /**
+     * Drop the session and everything uploaded so far
+     */
+    public void abort(String username, String id) throws JnomicsThriftException, IOException {
+        checkId(id);
+        closeActive(username, id);
+        FileSystem fs = JnomicsFileSystem.getFileSystem(properties, username);
+        try{
+            fs.delete(sessionDir(fs, id), true);
+        }finally{
+            fs.close();
+        }
+        log.info("Aborted upload session " + id + " for user " + username);
+    }
+
+    private void closeActive(String username, String id) throws JnomicsThriftException, IOException {
+        ActiveSegment segment = active.remove(id);
+        if(null == segment)
+            return;
+        JnomicsFsHandle jhandle = handles.get(segment.handle);
+        if(null == jhandle)
+            return;
+        if(!username.equals(jhandle.getOwner()))
+            throw new JnomicsThriftException("Permission Denied");
+        handles.remove(segment.handle);
+        synchronized (jhandle){
+            jhandle.close();
+        }
+    }
+
+    /**
+     * Forget segments whose handle expired, resume starts a new segment for them anyway
+     */
+    private void dropExpiredSegments(){
+        for(Map.Entry<String, ActiveSegment> e : active.entrySet()){
+            if(!handles.contains(e.getValue().handle))
+                active.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Delete the staging directories of sessions in every home that were
+     * neither finished nor aborted and have not changed for the session ttl
+     */
+    private void expireSessions(){
+        long now = System.currentTimeMillis();
+        FileSystem fs = null;
+        try{
+            fs = JnomicsFileSystem.getFileSystem(properties, JnomicsFileSystem.SUPERUSER);
+            FileStatus[] dirs = fs.globStatus(new Path("/user/*/" + STAGING_DIR + "/*"));
+            if(null == dirs)
+                return;
+            for(FileStatus dir : dirs){
+                String id = dir.getPath().getName();
+                if(active.containsKey(id) || now - lastModified(fs, dir) < sessionTtlMs)
+                    continue;
+                fs.delete(dir.getPath(), true);
+                log.info("Removed abandoned upload session " + dir.getPath());
+            }
+        }catch(Exception e){
+            log.warn("Problem removing abandoned upload sessions: " + e.toString());
+        }finally{
+            if(null != fs){
+                try{
+                    fs.close();
+                }catch(IOException e){
+                }
+            }
+        }
+    }
+
+    private static long lastModified(FileSystem fs, FileStatus dir) throws IOException {
+        long modified = dir.getModificationTime();
+        FileStatus[] stats = fs.listStatus(dir.getPath());
+        if(null != stats){
+            for(FileStatus stat : stats)
+                modified = Math.max(modified, stat.getModificationTime());
+        }
+        return modified;
+    }
+
+    /**
+     * Offset the client should continue from: segments are laid end to end
+     * from their start offsets, stopping at the first gap
+     */
+    private static long committedOffset(FileStatus[] segments){
+        long committed = 0;
+        for(FileStatus seg : segments){
+            long start = segmentStart(seg.getPath());
+            if(start > committed)
+                break;
+            committed = Math.max(committed, start + seg.getLen());
+        }
+        return committed;
+    }
+
+    /**
+     * Copy the segments into dest. A later segment always wins over the tail
+     * of the one before it, which may have grown after its writer was lost
+     */
+    private static void concat(FileSystem fs, FileStatus[] all, Path dest) throws IOException {
+        List<FileStatus> nonEmpty = new ArrayList<FileStatus>();
+        for(FileStatus seg : all){
+            if(seg.getLen() > 0)
+                nonEmpty.add(seg);
+        }
+        FileStatus[] segments = nonEmpty.toArray(new FileStatus[nonEmpty.size()]);
+        byte[] buf = new byte[1000000];
+        FSDataOutputStream out = fs.create(dest);
+        try{
+            for(int i = 0; i < segments.length; i++){
+                long start = segmentStart(segments[i].getPath());
+                long length = segments[i].getLen();
+                if(i + 1 < segments.length)
+                    length = Math.min(length, segmentStart(segments[i+1].getPath()) - start);
+                if(out.getPos() != start)
+                    throw new IOException("Upload is missing data at offset " + out.getPos());
+                FSDataInputStream in = fs.open(segments[i].getPath());
+                try{
+                    long remaining = length;
+                    while(remaining > 0){
+                        int amt = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+                        if(-1 == amt)
+                            throw new IOException("Segment " + segments[i].getPath() + " is shorter than expected");
+                        out.write(buf, 0, amt);
+                        remaining -= amt;
+                    }
+                }finally{
+                    in.close();
+                }
+            }
+        }finally{
+            out.close();
+        }
+    }
+
+    private static FileStatus[] segments(FileSystem fs, Path dir) throws IOException {
+        List<FileStatus> segments = new ArrayList<FileStatus>();
+        FileStatus[] stats = fs.listStatus(dir);
+        if(null != stats){
+            for(FileStatus stat : stats){
+                if(stat.getPath().getName().startsWith(SEGMENT_PREFIX))
+                    segments.add(stat);
+            }
+        }
+        FileStatus[] sorted = segments.toArray(new FileStatus[segments.size()]);
+        Arrays.sort(sorted, new Comparator<FileStatus>() {
+            @Override
+            public int compare(FileStatus a, FileStatus b) {
+                long sa = segmentStart(a.getPath()), sb = segmentStart(b.getPath());
+                return sa < sb ? -1 : (sa == sb ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private static Path readDest(FileSystem fs, Path dir) throws JnomicsThriftException, IOException {
+        Path destFile = new Path(dir, DEST_FILE);
+        if(!fs.exists(destFile))
+            throw new JnomicsThriftException("Unknown upload session: " + dir.getName());
+        FSDataInputStream in = fs.open(destFile);
+        try{
+            return new Path(in.readUTF());
+        }finally{
+            in.close();
+        }
+    }
+
+    private static Path sessionDir(FileSystem fs, String id){
+        return new Path(new Path(fs.getHomeDirectory(), STAGING_DIR), id);
+    }
+
+    private static Path segmentPath(Path dir, long start){
+        return new Path(dir, String.format("%s%020d", SEGMENT_PREFIX, start));
+    }
+
+    private static long segmentStart(Path segment){
+        return Long.parseLong(segment.getName().substring(SEGMENT_PREFIX.length()));
+    }
+
+    private static JnomicsThriftHandle toThriftHandle(UUID uuid, JnomicsFsHandle jhandle, JnomicsFrameCodec codec){
+        JnomicsThriftHandle handle = new JnomicsThriftHandle(uuid.toString());
+        handle.setSession(jhandle.getSession());
+        if(JnomicsFrameCodec.NONE != codec)
+            handle.setCodec(codec.getName());
+        return handle;
+    }
+
+    /** session ids end up in a path, only accept what start() hands out **/
+    private static void checkId(String id) throws JnomicsThriftException {
+        try{
+            if(null != id && UUID.fromString(id).toString().equals(id))
+                return;
+        }catch(IllegalArgumentException e){
+        }
+        throw new JnomicsThriftException("Invalid upload session: " + id);
+    }
+}
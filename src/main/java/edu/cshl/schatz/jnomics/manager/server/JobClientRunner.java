@@ -3,72 +3,67 @@ package edu.cshl.schatz.jnomics.manager.server;
 import edu.cshl.schatz.jnomics.manager.api.JnomicsThriftException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.security.UserGroupInformation;
 
+import java.io.IOException;
 import java.security.PrivilegedExceptionAction;
 import java.util.Properties;
 
 /**
  * User: james
+ *
+ * Runs a task as username with that user's pooled JobClient, see
+ * JnomicsJobClientPool.
  */
 public abstract class JobClientRunner<T> {
 
     public abstract T jobClientTask() throws Exception;
 
     private String username;
-    private Properties properties;
-    private Configuration configuration;
     private JobConf jConf;
-    private JobClient jobClient;
+    private JnomicsJobClientPool.Lease lease;
 
     public JobClientRunner(String username, Configuration conf, Properties properties) throws JnomicsThriftException{
         this.username = username;
-        this.configuration = conf;
-        this.properties = properties;
         final String jobTracker = properties.getProperty("mapreduce-jobtracker-host");
         final int jobTrackerPort = Integer.parseInt(properties.getProperty("mapreduce-jobtracker-port"));
-        configuration.set("mapred.job.tracker",jobTracker+":"+jobTrackerPort);
-        try {
-            jConf = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<JobConf>() {
-                @Override
-                public JobConf run() throws Exception {
-                    return new JobConf(configuration);
-                }
-            });
-        }catch(Exception e){
-            throw new JnomicsThriftException(e.toString());
-        }
-        try{
-            jobClient = UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<JobClient>() {
-                @Override
-                public JobClient run() throws Exception {
-                    return new JobClient(jConf);
-                }
-            });
-        }catch(Exception e){
-            throw new JnomicsThriftException(e.toString());
-        }
+        conf.set("mapred.job.tracker",jobTracker+":"+jobTrackerPort);
+        jConf = new JobConf(conf);
     }
 
     public JobConf getJobConf(){
         return jConf;
     }
 
+    /**
+     * Only valid inside jobClientTask
+     */
     public JobClient getJobClient(){
-        return jobClient;
+        return lease.getJobClient();
     }
 
     public T run() throws JnomicsThriftException{
+        lease = JnomicsJobClientPool.acquire(username, jConf);
+        boolean healthy = true;
         try{
-            return UserGroupInformation.createRemoteUser(username).doAs(new PrivilegedExceptionAction<T>() {
+            return lease.getUgi().doAs(new PrivilegedExceptionAction<T>() {
                 @Override
                 public T run() throws Exception{
                     return jobClientTask();
                 }
             });
+        }catch(RemoteException e){
+            //the jobtracker answered, the connection is fine
+            throw new JnomicsThriftException(e.toString());
+        }catch(IOException e){
+            healthy = false;
+            throw new JnomicsThriftException(e.toString());
         }catch(Exception e){
             throw new JnomicsThriftException(e.toString());
+        }finally{
+            lease.release(healthy);
+            lease = null;
         }
     }
 }
@@ -0,0 +1,46 @@
+use Test::More;
+use Test::Cmd;
+use strict;
+
+# fs -cat reads compressed frames until an empty one, the end of file
+# frame must decode in every codec
+
+my $bin = "/kb/deployment/bin";
+my $test = Test::Cmd->new(prog => "$bin/jkbase", workdir => '');
+
+ok($test, "creating Test::Cmd object");
+
+my $content = "ACGT" x 1000 . "\n";
+my $local = "t_fs_cat_$$.txt";
+open(my $fh, ">", $local) or die "Cannot write $local";
+print $fh $content;
+close($fh);
+
+$test->run(args => "fs -put $local");
+ok($? == 0, "fs put $local");
+
+# empty file, the first read is already at end of file
+my $empty = "t_fs_cat_empty_$$.txt";
+open($fh, ">", $empty) or die "Cannot write $empty";
+close($fh);
+
+$test->run(args => "fs -put $empty");
+ok($? == 0, "fs put $empty");
+
+$test->run(args => "fs -cat $local");
+ok($? == 0, "fs cat compressed");
+ok($test->stdout eq $content, "fs cat compressed contents");
+
+$test->run(args => "fs -cat -no_compress $local");
+ok($? == 0, "fs cat uncompressed");
+ok($test->stdout eq $content, "fs cat uncompressed contents");
+
+$test->run(args => "fs -cat $empty");
+ok($? == 0, "fs cat empty file");
+ok($test->stdout eq "", "fs cat empty file contents");
+
+$test->run(args => "fs -rm $local");
+$test->run(args => "fs -rm $empty");
+unlink($local, $empty);
+
+done_testing();
@@ -24,6 +24,25 @@ struct JnomicsThriftJobID{
 */
 struct JnomicsThriftHandle{
   string uuid; /**< hdfs filehandle uuid */
+  string codec; /**< wire codec of data sent through the handle ("none", "snappy", "gzip"), unset means none */
+  string session; /**< secret bound to the user that opened the handle, calls on a handle carrying it need no auth */
+};
+
+/**\class JnomicsThriftUploadStatus
+*\brief Where a resumable upload continues from, see resumeUpload
+*/
+struct JnomicsThriftUploadStatus{
+  JnomicsThriftHandle handle; /**< write handle for the rest of the upload */
+  i64 offset; /**< bytes of the source already committed, continue writing from here */
+};
+
+/**\class JnomicsThriftIngestStatus
+*\brief Progress of a server side fastq ingest, see ingestFastq
+*/
+struct JnomicsThriftIngestStatus{
+  bool complete; /**< has the ingest stopped, successfully or not */
+  i64 reads; /**< records written so far, a pair counts once */
+  string error; /**< why the ingest failed, unset on success */
 };
 
 /**\class JnomicsThriftFileStatus
@@ -41,6 +60,33 @@ struct JnomicsThriftFileStatus{
   i64 length;/**< size of file */
 };
 
+/**\class JnomicsThriftListing
+*\brief One page of a directory listing, see listStatusPaged
+*/
+struct JnomicsThriftListing{
+  list<JnomicsThriftFileStatus> statuses;/**< entries in this page */
+  string cursor;/**< pass as startAfter to fetch the next page */
+  bool more;/**< false once the listing is complete */
+};
+
+/**\class JnomicsThriftPathStatus
+*\brief Existence and status of a single path, see statPaths
+*/
+struct JnomicsThriftPathStatus{
+  string path;/**< path as requested */
+  bool exists;/**< does the path exist */
+  JnomicsThriftFileStatus status;/**< status of the path, unset when it does not exist */
+};
+
+/**\class JnomicsThriftJobValidation
+*\brief Result of validating the inputs of a job before submission
+*/
+struct JnomicsThriftJobValidation{
+  list<string> missingInputs;/**< inputs that do not exist */
+  bool outputExists;/**< the output path is already taken */
+  bool genomeAvailable;/**< the requested genome is in the repository */
+};
+
 /**\class JnomicsThriftJobStatus 
 *\brief Container items related to a running Job's status
 */
@@ -153,24 +199,76 @@ struct JnomicsData{
    */
   JnomicsThriftHandle open (string path, Authentication auth) throws JnomicsThriftException;
   
+  /**\brief Create a file in hdfs, negotiating wire compression
+   * Data written to the handle must be compressed with the codec set in
+   * the returned handle, one frame per write call
+   *\param path Input directory on hdfs
+   *\param codecs codecs the client supports, in order of preference
+   *\param auth Authentication container
+   *\returns JnomicsThriftHandle handle to the open file, with the chosen codec
+   *\exception JnomicsException containing error information for task
+   */
+  JnomicsThriftHandle createCompressed (string path, list<string> codecs, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Open file in hdfs, negotiating wire compression
+   * Data returned by read and readAt on the handle is compressed with the
+   * codec set in the returned handle, one frame per call
+   *\param path Path to open in hdfs
+   *\param codecs codecs the client supports, in order of preference
+   *\param auth Authentication value
+   *\returns JnomicsThriftHandle a handle to the open file, with the chosen codec
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftHandle openCompressed (string path, list<string> codecs, Authentication auth) throws JnomicsThriftException;
+
   /**\brief Write data to file handle
    *\param handle a handle to the open file in hdfs
    *\param data binary data to write to the file
-   *\param auth Authentication container
+   *\param auth Authentication container, may be null when the handle carries a session
    *\exception JnomicsThriftException containing error information for task
    */
   void write (JnomicsThriftHandle handle, binary data, Authentication auth) throws JnomicsThriftException;
 
+  /**\brief Pipelined write to file handle, returns without waiting for the data server
+   * Chunks are written to hdfs in the background in sequence order. Errors
+   * are reported by the next flush or close. Do not mix with write on one handle
+   *\param handle a handle to the open file in hdfs
+   *\param seq sequence number of the chunk, starting at 0 for each handle from create or resumeUpload
+   *\param data binary data to write to the file
+   *\param auth Authentication container, may be null when the handle carries a session
+   */
+  oneway void writeAsync (JnomicsThriftHandle handle, i64 seq, binary data, Authentication auth);
+
+  /**\brief Wait for pipelined writes on a handle and flush them to hdfs
+   *\param handle a handle to the open file in hdfs
+   *\param auth Authentication container, may be null when the handle carries a session
+   *\return sequence number of the last chunk written, -1 if none
+   *\exception JnomicsThriftException the first failed pipelined write
+   */
+  i64 flush (JnomicsThriftHandle handle, Authentication auth) throws JnomicsThriftException;
+
   /**\brief Read data from file handle
    *\param handle a handle to the open file in hdfs
-   *\param auth Authentication container
+   *\param auth Authentication container, may be null when the handle carries a session
    *\exception JnomicsThriftException containing error information for task
    */
   binary read (JnomicsThriftHandle handle, Authentication auth) throws JnomicsThriftException;
 
+  /**\brief Positioned read from file handle
+   * Does not move the handle's stream position, so several readers
+   * may share one handle and fetch different ranges concurrently
+   *\param handle a handle to the open file in hdfs
+   *\param offset byte offset in the file to start reading from
+   *\param length maximum number of bytes to return (capped at 2MB)
+   *\param auth Authentication container, may be null when the handle carries a session
+   *\return the bytes read, empty at end of file
+   *\exception JnomicsThriftException containing error information for task
+   */
+  binary readAt (JnomicsThriftHandle handle, i64 offset, i32 length, Authentication auth) throws JnomicsThriftException;
+
   /**\brief Close a file handle
    *\param handle a handle to the open file in hdfs
-   *\param auth Authentication container
+   *\param auth Authentication container, may be null when the handle carries a session
    *\exception JnomicsThriftException containing error information for task
    */
   void close(JnomicsThriftHandle handle, Authentication auth) throws  JnomicsThriftException;
@@ -183,6 +281,17 @@ struct JnomicsData{
    */
   list<JnomicsThriftFileStatus> listStatus(string path, Authentication auth) throws JnomicsThriftException;
 
+  /**\brief List the status for files in hdfs one page at a time
+   *\param path the path in hdfs to return information about
+   *\param startAfter cursor from the previous page, empty for the first page
+   *\param limit maximum entries to return (capped at 10000)
+   *\param recursive also list the contents of subdirectories, depth first
+   *\param auth Authentication container
+   *\return JnomicsThriftListing the page and the cursor for the next one
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftListing listStatusPaged(string path, string startAfter, i32 limit, bool recursive, Authentication auth) throws JnomicsThriftException;
+
   /**\brief Remove path on hdfs
    *\param path the path in hdfs
    *\param recursive Remove recursively?
@@ -209,11 +318,125 @@ struct JnomicsData{
    */
   bool mv(string path, string dest, Authentication auth) throws JnomicsThriftException;
 
+  /**\brief Join uploaded part files into a single file in hdfs
+   * Parts are appended to dest in list order and removed afterwards.
+   * Used by parallel uploads, where each connection writes its own part
+   *\param parts the part files in hdfs, in order
+   *\param dest destination path
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool joinParts(list<string> parts, string dest, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Copy a file within hdfs, the data never leaves the cluster
+   *\param src the file to copy
+   *\param dest destination path, replaced if it exists
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool copy(string src, string dest, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Concatenate files within hdfs into a new file, the sources are kept
+   *\param srcs the files to concatenate, in order
+   *\param dest destination path, replaced if it exists
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool concat(list<string> srcs, string dest, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Merge the part-* files of a job output directory into one file
+   *\param dir job output directory in hdfs
+   *\param dest destination path, replaced if it exists
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool mergeParts(string dir, string dest, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Convert fastq already in hdfs to block compressed read SequenceFiles on the data server
+   * Runs in the background, poll ingestStatus until it is complete.
+   * Inputs may be gzip or bzip2 compressed, by extension
+   *\param inputs one single end fastq, one interleaved paired end fastq or two paired end fastq files
+   *\param output output path, a directory of part files when shards > 1
+   *\param interleaved the single input holds mates one after the other
+   *\param shards number of SequenceFiles to write in parallel
+   *\param auth Authentication container
+   *\return ingest id to pass to ingestStatus
+   *\exception JnomicsThriftException containing error information for task
+   */
+  string ingestFastq(list<string> inputs, string output, bool interleaved, i32 shards, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Progress of a fastq ingest
+   *\param ingestId id from ingestFastq
+   *\param auth Authentication container
+   *\return JnomicsThriftIngestStatus, the id is forgotten once a complete status is returned
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftIngestStatus ingestStatus(string ingestId, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Start a resumable upload
+   * The upload is staged in the user's home directory until finishUpload,
+   * so it survives dropped connections, expired handles and server restarts
+   *\param path destination path in hdfs
+   *\param auth Authentication container
+   *\return session id to pass to resumeUpload/finishUpload/abortUpload
+   *\exception JnomicsThriftException containing error information for task
+   */
+  string startUpload(string path, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Get a write handle for a resumable upload
+   * Call after startUpload and again after every reconnect. Write the
+   * source from the returned offset on with write(), do not close the handle
+   *\param sessionId id from startUpload
+   *\param codecs wire codecs the client can use, in order of preference
+   *\param auth Authentication container
+   *\return JnomicsThriftUploadStatus handle and committed offset
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftUploadStatus resumeUpload(string sessionId, list<string> codecs, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Complete a resumable upload and move it to its destination
+   *\param sessionId id from startUpload
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool finishUpload(string sessionId, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Abandon a resumable upload and remove the data staged so far
+   *\param sessionId id from startUpload
+   *\param auth Authentication container
+   *\return success/failure
+   *\exception JnomicsThriftException containing error information for task
+   */
+  bool abortUpload(string sessionId, Authentication auth) throws JnomicsThriftException;
+
   /**\brief List genomes that are indexed
    *\param auth Authentication container
    *\return list of genomes
    *\exception JnomicsThriftException containing error information for task
    */
   list<string> listGenomes(Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Check many paths in hdfs in one call
+   *\param paths the paths in hdfs
+   *\param auth Authentication container
+   *\return list<JnomicsThriftPathStatus> existence and status of each path, in request order
+   *\exception JnomicsThriftException containing error information for task
+   */
+  list<JnomicsThriftPathStatus> statPaths(list<string> paths, Authentication auth) throws JnomicsThriftException;
+
+  /**\brief Validate the inputs of a job in one call
+   *\param inputs input paths that must exist
+   *\param output output path that must not exist yet
+   *\param genome genome that must be in the repository, empty to skip the check
+   *\param auth Authentication container
+   *\return JnomicsThriftJobValidation missing inputs, output and genome availability
+   *\exception JnomicsThriftException containing error information for task
+   */
+  JnomicsThriftJobValidation validateJobInputs(list<string> inputs, string output, string genome, Authentication auth) throws JnomicsThriftException;
 };
 
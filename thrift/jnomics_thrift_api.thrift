@@ -13,7 +13,20 @@ struct JnomicsThriftJobID{
 }
 
 struct JnomicsThriftHandle{
-       1: string uuid
+       1: string uuid,
+       2: optional string codec,
+       3: optional string session
+}
+
+struct JnomicsThriftUploadStatus{
+       1: JnomicsThriftHandle handle,
+       2: i64 offset
+}
+
+struct JnomicsThriftIngestStatus{
+       1: bool complete,
+       2: i64 reads,
+       3: optional string error
 }
 
 struct JnomicsThriftFileStatus{
@@ -28,6 +41,24 @@ struct JnomicsThriftFileStatus{
        9: i64 length
 }
 
+struct JnomicsThriftListing{
+       1: list<JnomicsThriftFileStatus> statuses,
+       2: string cursor,
+       3: bool more
+}
+
+struct JnomicsThriftPathStatus{
+       1: string path,
+       2: bool exists,
+       3: optional JnomicsThriftFileStatus status
+}
+
+struct JnomicsThriftJobValidation{
+       1: list<string> missingInputs,
+       2: bool outputExists,
+       3: bool genomeAvailable
+}
+
 struct JnomicsThriftJobStatus{
        1: string job_id,
        2: string username,
@@ -99,16 +130,34 @@ service JnomicsCompute{
 service JnomicsData{	
         JnomicsThriftHandle create (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
         JnomicsThriftHandle open (1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftHandle createCompressed (1: string path, 2: list<string> codecs, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftHandle openCompressed (1: string path, 2: list<string> codecs, 3: Authentication auth) throws (1: JnomicsThriftException je),
         void write (1: JnomicsThriftHandle handle, 2: binary data, 3:Authentication auth) throws (1: JnomicsThriftException je),
+        oneway void writeAsync (1: JnomicsThriftHandle handle, 2: i64 seq, 3: binary data, 4: Authentication auth),
+        i64 flush (1: JnomicsThriftHandle handle, 2: Authentication auth) throws (1: JnomicsThriftException je),
         binary read (1: JnomicsThriftHandle handle, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        binary readAt (1: JnomicsThriftHandle handle, 2: i64 offset, 3: i32 length, 4: Authentication auth) throws (1: JnomicsThriftException je),
         void close(1: JnomicsThriftHandle handle, 2: Authentication auth) throws (1: JnomicsThriftException je),
         list<JnomicsThriftFileStatus> listStatus(1: string path, 2:Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftListing listStatusPaged(1: string path, 2: string startAfter, 3: i32 limit, 4: bool recursive, 5: Authentication auth) throws (1: JnomicsThriftException je),
         bool checkFileStatus(1: string path, 2:Authentication auth) throws (1: JnomicsThriftException je),
 		list<string> listShockStatus(1: string path, 2:Authentication auth) throws (1: JnomicsThriftException je),
         bool remove(1: string path, 2: bool recursive, 3: Authentication auth) throws (1: JnomicsThriftException je),
         bool mkdir(1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
         bool mv(1: string path, 2: string dest, 3:Authentication auth) throws (1: JnomicsThriftException je),
-        list<string> listGenomes(1:Authentication auth) throws (1: JnomicsThriftException je)
+        bool joinParts(1: list<string> parts, 2: string dest, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        bool copy(1: string src, 2: string dest, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        bool concat(1: list<string> srcs, 2: string dest, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        bool mergeParts(1: string dir, 2: string dest, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        string ingestFastq(1: list<string> inputs, 2: string output, 3: bool interleaved, 4: i32 shards, 5: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftIngestStatus ingestStatus(1: string ingestId, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        string startUpload(1: string path, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftUploadStatus resumeUpload(1: string sessionId, 2: list<string> codecs, 3: Authentication auth) throws (1: JnomicsThriftException je),
+        bool finishUpload(1: string sessionId, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        bool abortUpload(1: string sessionId, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        list<string> listGenomes(1:Authentication auth) throws (1: JnomicsThriftException je),
+        list<JnomicsThriftPathStatus> statPaths(1: list<string> paths, 2: Authentication auth) throws (1: JnomicsThriftException je),
+        JnomicsThriftJobValidation validateJobInputs(1: list<string> inputs, 2: string output, 3: string genome, 4: Authentication auth) throws (1: JnomicsThriftException je)
 
 }
 